@@ -0,0 +1,124 @@
+package com.example.android.pets;
+
+import android.app.Instrumentation;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Counts the allocations of binding catalog rows once every row and thumbnail has been seen, as
+ * when flinging back over pets already on screen once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetCursorAdapterTest {
+
+    private static final int PETS = 60;
+
+    /** Row views, fewer than the pets so every view is bound to rows of all kinds. */
+    private static final int VIEWS = 7;
+
+    private static final int PASSES = 20;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private PetCursorAdapter mAdapter;
+    private PetCursorAdapter.ViewHolder[] mHolders;
+
+    @Before
+    public void showPets() throws InterruptedException {
+        final ContextThemeWrapper context = new ContextThemeWrapper(
+                InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        int photoSize = context.getResources().getDimensionPixelSize(R.dimen.list_photo_size);
+        Bitmap bitmap = Bitmap.createBitmap(photoSize, photoSize, Bitmap.Config.RGB_565);
+
+        final MatrixCursor cursor = new MatrixCursor(new String[] { PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_PHOTO });
+        for (int i = 1; i <= PETS; i++) {
+            // Every third pet has no breed and every other one a photo, already decoded.
+            String photo = i % 2 == 0 ? i + ".jpg" : null;
+            cursor.addRow(new Object[] { i, "Pet " + i, i % 3 == 0 ? null : "TERRIER", photo });
+            if (photo != null) {
+                PetThumbnailLoader.putCached(photoSize, photo, bitmap);
+            }
+        }
+
+        final CountDownLatch shown = new CountDownLatch(1);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter = new PetCursorAdapter(context, null);
+                mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                    @Override
+                    public void onItemRangeInserted(int positionStart, int itemCount) {
+                        shown.countDown();
+                    }
+                });
+                mAdapter.swapPages(new Cursor[] { cursor });
+
+                RecyclerView parent = new RecyclerView(context);
+                mHolders = new PetCursorAdapter.ViewHolder[VIEWS];
+                for (int i = 0; i < VIEWS; i++) {
+                    mHolders[i] = mAdapter.onCreateViewHolder(parent, 0);
+                }
+            }
+        });
+        assertTrue(shown.await(5, TimeUnit.SECONDS));
+        assertEquals(PETS, mAdapter.getItemCount());
+    }
+
+    @After
+    public void clearThumbnails() {
+        // The cache is shared by the whole process, so leave no made-up photos behind.
+        PetThumbnailLoader.clearCache();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void bindingSeenRowsAllocatesNothing() {
+        // Older image views wrap every bitmap they are given in a new drawable.
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1);
+
+        final int[] allocations = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Lets the views and the loader size their reusable buffers.
+                bindAll(1);
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                bindAll(PASSES);
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+        assertEquals(0, allocations[0]);
+    }
+
+    private void bindAll(int passes) {
+        for (int pass = 0; pass < passes; pass++) {
+            for (int position = 0; position < PETS; position++) {
+                mAdapter.onBindViewHolder(mHolders[(pass + position) % VIEWS], position);
+            }
+        }
+    }
+}
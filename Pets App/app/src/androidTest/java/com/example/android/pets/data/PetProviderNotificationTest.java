@@ -0,0 +1,75 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that cursors hear about single-pet writes. Runs against the installed provider, since
+ * a mock resolver drops change notifications.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderNotificationTest {
+
+    private static final String NAME = "Zanzibarnotify";
+
+    private ContentResolver mResolver;
+    private Uri mPetUri;
+
+    @Before
+    public void insertPet() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, NAME);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        mPetUri = mResolver.insert(PetEntry.CONTENT_URI, values);
+        assertNotNull(mPetUri);
+    }
+
+    @After
+    public void deletePet() {
+        mResolver.delete(mPetUri, null, null);
+    }
+
+    @Test
+    public void searchCursorIsNotifiedOfAnEdit() throws InterruptedException {
+        Cursor cursor = mResolver.query(PetEntry.buildSearchUri(NAME), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.getCount() > 0);
+            final CountDownLatch changed = new CountDownLatch(1);
+            cursor.registerContentObserver(new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    changed.countDown();
+                }
+            });
+
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 5);
+            mResolver.update(mPetUri, values, null, null);
+
+            assertTrue("Search cursor was not notified", changed.await(5, TimeUnit.SECONDS));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports CSV and JSON files into a provider stub that keeps the pets it is sent, and exports the
+ * pets it is given.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetTransferTest {
+
+    private static final String HEADER = "name,breed,gender,weight";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Rows per pet in the large import; twenty full chunks and a partial one. */
+    private static final int LARGE_IMPORT = 10250;
+
+    private final List<ContentValues> mInserted = new ArrayList<>();
+    private final List<Integer> mChunks = new ArrayList<>();
+    private final MatrixCursor mPets = new MatrixCursor(PetBatch.COLUMNS);
+    private MockContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(PetsContract.CONTENT_AUTHORITY, new MockContentProvider() {
+            @Override
+            public int bulkInsert(Uri uri, ContentValues[] values) {
+                mInserted.addAll(Arrays.asList(values));
+                mChunks.add(values.length);
+                return values.length;
+            }
+
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection,
+                    String[] selectionArgs, String sortOrder) {
+                // Fewer pets than a page, so the export asks once.
+                return mPets;
+            }
+        });
+    }
+
+    @Test
+    public void importSkipsTrailingBlankLine() throws IOException {
+        assertEquals(2, importCsv(HEADER + "\nRex,,1,12\nTom,PERSIAN,2,4\n\n"));
+        assertEquals("Tom", mInserted.get(1).getAsString(PetEntry.COLUMN_PET_NAME));
+    }
+
+    @Test
+    public void importSkipsBlankLinesBetweenRecords() throws IOException {
+        assertEquals(2, importCsv(HEADER + "\r\n\r\nRex,,1,12\r\n\r\nTom,PERSIAN,2,4\r\n\r\n"));
+    }
+
+    @Test
+    public void importKeepsBlankLineInsideQuotedField() throws IOException {
+        assertEquals(1, importCsv(HEADER + "\n\"Rex\n\nthe second\",,1,12\n"));
+        assertEquals("Rex\n\nthe second",
+                mInserted.get(0).getAsString(PetEntry.COLUMN_PET_NAME));
+    }
+
+    @Test
+    public void exportQuotesNamesThatNeedIt() throws IOException {
+        mPets.addRow(new Object[] { 1, "Rex", null, 1, 12 });
+        mPets.addRow(new Object[] { 2, "Tom \"the cat\", Jr", "PERSIAN", 2, 4 });
+        mPets.addRow(new Object[] { 3, "\"", "", 0, -7 });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, PetTransfer.exportPets(mResolver, out, PetTransfer.FORMAT_CSV, null));
+
+        assertEquals(HEADER + "\r\nRex,,1,12\r\n\"Tom \"\"the cat\"\", Jr\",PERSIAN,2,4\r\n"
+                + "\"\"\"\",,0,-7\r\n", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void importStreamsLargeFileInChunks() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        long imported = PetTransfer.importPets(mResolver, generatedCsv(LARGE_IMPORT),
+                PetTransfer.FORMAT_CSV, new PetTransfer.ProgressListener() {
+                    @Override
+                    public void onProgress(long rows) {
+                        progress.add(rows);
+                    }
+                });
+
+        assertEquals(LARGE_IMPORT, imported);
+        assertEquals(LARGE_IMPORT / 500 + 1, mChunks.size());
+        for (int i = 0; i < mChunks.size() - 1; i++) {
+            assertEquals(500, (int) mChunks.get(i));
+            assertEquals(500L * (i + 1), (long) progress.get(i));
+        }
+        assertEquals(LARGE_IMPORT % 500, (int) mChunks.get(mChunks.size() - 1));
+        assertEquals(LARGE_IMPORT, (long) progress.get(progress.size() - 1));
+
+        ContentValues last = mInserted.get(LARGE_IMPORT - 1);
+        assertEquals("Pet " + LARGE_IMPORT, last.getAsString(PetEntry.COLUMN_PET_NAME));
+        assertEquals("TERRIER", last.getAsString(PetEntry.COLUMN_PET_BREED));
+        assertEquals(LARGE_IMPORT % 3, (int) last.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        assertEquals(LARGE_IMPORT % 40, (int) last.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    @Test
+    public void jsonRoundTripKeepsEveryPet() throws IOException {
+        mPets.addRow(new Object[] { 1, "Rex", null, 1, 12 });
+        mPets.addRow(new Object[] { 2, "Tom \"the cat\", Jr", "PERSIAN", 2, 4 });
+        mPets.addRow(new Object[] { 3, "Zo\u00EB \uD83D\uDC36", "TERRIER", 0, 0 });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, PetTransfer.exportPets(mResolver, out, PetTransfer.FORMAT_JSON, null));
+        assertEquals(3, PetTransfer.importPets(mResolver,
+                new ByteArrayInputStream(out.toByteArray()), PetTransfer.FORMAT_JSON, null));
+
+        assertPet(mInserted.get(0), "Rex", null, 1, 12);
+        assertPet(mInserted.get(1), "Tom \"the cat\", Jr", "PERSIAN", 2, 4);
+        assertPet(mInserted.get(2), "Zo\u00EB \uD83D\uDC36", "TERRIER", 0, 0);
+    }
+
+    @Test
+    public void importNamesTheMalformedRecord() {
+        assertImportFails(HEADER + "\nRex,,1,12\nTom,PERSIAN,2\n", "Record 2 has 3 fields");
+        assertImportFails(HEADER + "\nRex,,1,12\nTom,PERSIAN,2,heavy\n",
+                "Record 2 has invalid number heavy");
+        assertImportFails(HEADER + "\nRex,,1,12\nTom,PERSIAN,7,4\n", "Invalid pet at record 2");
+        assertImportFails("name,breed,weight\nRex,,12\n", "missing the gender column");
+        assertEquals(0, mInserted.size());
+    }
+
+    @Test
+    public void importKeepsChunksBeforeMalformedRecord() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int i = 1; i <= 501; i++) {
+            csv.append("Pet ").append(i).append(",,1,12\n");
+        }
+        csv.append("Bad,,1,-3\n");
+
+        assertImportFails(csv.toString(), "Invalid pet at record 502");
+        assertEquals(Arrays.asList(500), mChunks);
+    }
+
+    private void assertImportFails(String csv, String message) {
+        try {
+            importCsv(csv);
+            fail("Imported " + csv);
+        } catch (IOException e) {
+            if (!e.getMessage().contains(message)) {
+                throw new AssertionError("Expected \"" + message + "\" in: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void assertPet(ContentValues values, String name, String breed, int gender,
+            int weight) {
+        assertEquals(name, values.getAsString(PetEntry.COLUMN_PET_NAME));
+        if (breed == null) {
+            assertNull(values.getAsString(PetEntry.COLUMN_PET_BREED));
+        } else {
+            assertEquals(breed, values.getAsString(PetEntry.COLUMN_PET_BREED));
+        }
+        assertEquals(gender, (int) values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        assertEquals(weight, (int) values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    /** A CSV file of {@code pets} records made a line at a time, never held whole. */
+    private static InputStream generatedCsv(final int pets) {
+        return new InputStream() {
+            private byte[] mLine = (HEADER + "\n").getBytes(UTF_8);
+            private int mPosition;
+            private int mRecord;
+
+            @Override
+            public int read() {
+                if (mPosition == mLine.length) {
+                    if (mRecord == pets) {
+                        return -1;
+                    }
+                    mRecord++;
+                    mLine = ("Pet " + mRecord + "," + (mRecord % 2 == 0 ? "TERRIER" : "") + ","
+                            + mRecord % 3 + "," + mRecord % 40 + "\n").getBytes(UTF_8);
+                    mPosition = 0;
+                }
+                return mLine[mPosition++] & 0xFF;
+            }
+        };
+    }
+
+    private long importCsv(String csv) throws IOException {
+        return PetTransfer.importPets(mResolver,
+                new ByteArrayInputStream(csv.getBytes(UTF_8)),
+                PetTransfer.FORMAT_CSV, null);
+    }
+}
@@ -1,23 +1,32 @@
 package com.example.android.pets;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.content.CursorLoader;
 import android.content.Loader;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import com.example.android.pets.data.PetMaintenanceJob;
+import com.example.android.pets.data.PetWriter;
+import com.example.android.pets.data.PetsContract;
 import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetFilter;
 
 /**
  * Displays list of pets that were entered and stored in the app.
@@ -25,14 +34,77 @@ import com.example.android.pets.data.PetsContract.PetEntry;
 
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    private static final int PET_LOADER = 0;
+    /** Number of pets fetched per page of the catalog. */
+    private static final int PAGE_SIZE = 100;
+
+    /** Page n of the catalog is loaded by the loader with id PAGE_LOADER + n. */
+    private static final int PAGE_LOADER = 0;
+
+    /** Loader for full-text search results; kept clear of the page loader ids. */
+    private static final int SEARCH_LOADER = -1;
+
+    private static final String ARG_AFTER_ID = "after_id";
+
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_BREED = "breed";
+    private static final String STATE_MIN_WEIGHT = "min_weight";
+    private static final String STATE_MAX_WEIGHT = "max_weight";
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /**
+     * A loaded page of the catalog, with its size, last id and last sort key read once when it
+     * arrives.
+     */
+    private static final class Page {
+        final Cursor cursor;
+        final int count;
+        final long lastId;
+        final String lastKey;
+
+        Page(Cursor cursor, String sortColumn) {
+            this.cursor = cursor;
+            count = cursor.getCount();
+            if (cursor.moveToLast()) {
+                lastId = cursor.getLong(cursor.getColumnIndex(PetEntry._ID));
+                lastKey = cursor.getString(cursor.getColumnIndex(sortColumn));
+            } else {
+                lastId = 0;
+                lastKey = null;
+            }
+        }
+    }
 
     PetCursorAdapter mPetCursorAdapter;
+
+    private View mEmptyView;
+
+    /** Pages loaded so far, keyed by page number. */
+    private final SparseArray<Page> mPages = new SparseArray<>();
+
+    /** Number of pages that have a loader running. */
+    private int mPageCount;
+
+    /** Text in the search box, or null when the full catalog is shown. */
+    private String mSearchQuery;
+
+    /** Gender filter and sort order chosen from the menu; applied by the provider. */
+    private final PetFilter mFilter = new PetFilter();
+
+    /** True while the first page is reloading, so the stale one is not paged past. */
+    private boolean mReloading;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetMaintenanceJob.schedule(this);
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -43,26 +115,153 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        final ListView displayView = (ListView) findViewById(R.id.list_view_pet);
+        RecyclerView displayView = (RecyclerView) findViewById(R.id.list_view_pet);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        displayView.setLayoutManager(layoutManager);
 
-        View emptyView = findViewById(R.id.empty_view);
-        displayView.setEmptyView(emptyView);
-
-        mPetCursorAdapter = new PetCursorAdapter(this,null);
-
-        displayView.setAdapter(mPetCursorAdapter);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        displayView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mPetCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent intent = new Intent(CatalogActivity.this,EditorActivity.class);
                 Uri currentPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI,id);
                 intent.setData(currentPetUri);
                 startActivity(intent);
             }
         });
+        mPetCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        displayView.setAdapter(mPetCursorAdapter);
+
+        displayView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Start fetching the next page while half a page is still left to scroll.
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= mPetCursorAdapter.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        if (savedInstanceState != null) {
+            restoreState(savedInstanceState);
+        }
+        loadPage(0, 0, null);
+        if (mSearchQuery != null) {
+            getLoaderManager().initLoader(SEARCH_LOADER, null, this);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        putInteger(outState, STATE_GENDER, mFilter.getGender());
+        outState.putString(STATE_BREED, mFilter.getBreed());
+        putInteger(outState, STATE_MIN_WEIGHT, mFilter.getMinWeight());
+        putInteger(outState, STATE_MAX_WEIGHT, mFilter.getMaxWeight());
+        outState.putString(STATE_SORT, mFilter.getSort());
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
 
-        getLoaderManager().initLoader(PET_LOADER, null,this);
+    /** Brings back the filter, sort order and search saved by {@link #onSaveInstanceState}. */
+    private void restoreState(Bundle state) {
+        mFilter.setGender(getInteger(state, STATE_GENDER))
+                .setBreed(state.getString(STATE_BREED))
+                .setWeightRange(getInteger(state, STATE_MIN_WEIGHT),
+                        getInteger(state, STATE_MAX_WEIGHT))
+                .setSort(state.getString(STATE_SORT, PetEntry._ID));
+        mSearchQuery = state.getString(STATE_SEARCH_QUERY);
+    }
+
+    private static void putInteger(Bundle bundle, String key, Integer value) {
+        if (value != null) {
+            bundle.putInt(key, value);
+        }
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+
+    private void loadPage(int page, long afterId, String afterKey) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, afterId);
+        args.putString(ARG_AFTER_KEY, afterKey);
+        getLoaderManager().initLoader(PAGE_LOADER + page, args, this);
+        mPageCount = page + 1;
+    }
+
+    /**
+     * Requests the page after the last loaded one, unless it is still loading or the last page
+     * came back short, which means the end of the table has been reached.
+     */
+    private void loadNextPage() {
+        if (mSearchQuery != null || mReloading) {
+            return;
+        }
+        Page last = mPages.get(mPageCount - 1);
+        if (last == null || last.count < PAGE_SIZE) {
+            return;
+        }
+        loadPage(mPageCount, last.lastId, last.lastKey);
+    }
+
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mPetCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /** Drops every page after {@code page}, e.g. because its boundary moved. */
+    private void truncatePages(int page) {
+        for (int i = page + 1; i < mPageCount; i++) {
+            mPages.remove(i);
+            getLoaderManager().destroyLoader(PAGE_LOADER + i);
+        }
+        mPageCount = Math.min(mPageCount, page + 1);
+    }
+
+    /**
+     * Reloads the catalog from the first page after the filter or sort order changed. The old
+     * first page stays on screen until its replacement arrives.
+     */
+    private void reloadPages() {
+        truncatePages(0);
+        mReloading = true;
+        getLoaderManager().restartLoader(PAGE_LOADER, null, this);
+        if (mSearchQuery != null) {
+            getLoaderManager().restartLoader(SEARCH_LOADER, null, this);
+        }
+    }
+
+    private void showPages() {
+        if (mSearchQuery != null) {
+            return;
+        }
+        int loaded = 0;
+        while (loaded < mPageCount && mPages.get(loaded) != null) {
+            loaded++;
+        }
+        Cursor[] cursors = new Cursor[loaded];
+        for (int i = 0; i < loaded; i++) {
+            cursors[i] = mPages.get(i).cursor;
+        }
+        mPetCursorAdapter.swapPages(cursors);
     }
 
     private void insertPet()
@@ -73,7 +272,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(PetEntry.COLUMN_PET_BREED,"TERRIER");
         values.put(PetEntry.COLUMN_PET_WEIGHT,7);
         values.put(PetEntry.COLUMN_PET_GENDER,PetEntry.GENDER_MALE);
-        Uri insert = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        PetWriter.getInstance(this).insert(values, null);
     }
 
     @Override
@@ -81,6 +280,31 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(R.id.action_dump_stats).setVisible(BuildConfig.DEBUG);
+        menu.findItem(sortItemId(mFilter.getSort())).setChecked(true);
+        menu.findItem(genderItemId(mFilter.getGender())).setChecked(true);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchQuery != null) {
+            // Back after a restart with results showing; set before the listener so the search
+            // is not run again.
+            searchItem.expandActionView();
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -97,32 +321,184 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            case R.id.action_dump_stats:
+                showStats();
+                return true;
+            case R.id.action_sort_added:
+            case R.id.action_sort_name:
+            case R.id.action_sort_breed:
+            case R.id.action_sort_weight:
+                item.setChecked(true);
+                mFilter.setSort(sortColumn(item.getItemId()));
+                reloadPages();
+                return true;
+            case R.id.action_show_all:
+            case R.id.action_show_male:
+            case R.id.action_show_female:
+            case R.id.action_show_unknown:
+                item.setChecked(true);
+                mFilter.setGender(gender(item.getItemId()));
+                reloadPages();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private static String sortColumn(int itemId) {
+        switch (itemId) {
+            case R.id.action_sort_name:
+                return PetEntry.COLUMN_PET_NAME;
+            case R.id.action_sort_breed:
+                return PetEntry.COLUMN_PET_BREED;
+            case R.id.action_sort_weight:
+                return PetEntry.COLUMN_PET_WEIGHT;
+            default:
+                return PetEntry._ID;
+        }
+    }
+
+    private static int sortItemId(String column) {
+        switch (column) {
+            case PetEntry.COLUMN_PET_NAME:
+                return R.id.action_sort_name;
+            case PetEntry.COLUMN_PET_BREED:
+                return R.id.action_sort_breed;
+            case PetEntry.COLUMN_PET_WEIGHT:
+                return R.id.action_sort_weight;
+            default:
+                return R.id.action_sort_added;
+        }
+    }
+
+    private static Integer gender(int itemId) {
+        switch (itemId) {
+            case R.id.action_show_male:
+                return PetEntry.GENDER_MALE;
+            case R.id.action_show_female:
+                return PetEntry.GENDER_FEMALE;
+            case R.id.action_show_unknown:
+                return PetEntry.GENDER_UNKNOWN;
+            default:
+                return null;
+        }
+    }
+
+    private static int genderItemId(Integer gender) {
+        if (gender == null) {
+            return R.id.action_show_all;
+        }
+        switch (gender) {
+            case PetEntry.GENDER_MALE:
+                return R.id.action_show_male;
+            case PetEntry.GENDER_FEMALE:
+                return R.id.action_show_female;
+            default:
+                return R.id.action_show_unknown;
+        }
+    }
+
+    /**
+     * Replaces the catalog with search results for {@code query}, or goes back to the paged
+     * catalog when the query is empty. Each keystroke restarts the search loader, which cancels
+     * the search still in flight.
+     */
+    private void search(String query) {
+        if (TextUtils.isEmpty(query.trim())) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                showPages();
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+            }
+            return;
+        }
+        mSearchQuery = query;
+        getLoaderManager().restartLoader(SEARCH_LOADER, null, this);
+    }
+
+    private void showStats() {
+        Bundle stats = getContentResolver().call(PetEntry.CONTENT_URI,
+                PetsContract.METHOD_DUMP_STATS, null, null);
+        String report = stats.getString(PetsContract.EXTRA_STATS)
+                + "Writer: " + PetWriter.getInstance(this).getMetrics();
+        Log.i("CatalogActivity", report);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_dump_stats)
+                .setMessage(report)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
     private void deleteAllPets() {
 
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        PetWriter.getInstance(this).delete(PetEntry.CONTENT_URI, new PetWriter.Callback() {
+            @Override
+            public void onComplete(PetWriter.Result result) {
+                Log.v("CatalogActivity", result.count + " rows deleted from pet database");
+            }
+        });
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
 
-        String [] projection = {PetEntry._ID,PetEntry.COLUMN_PET_NAME,PetEntry.COLUMN_PET_BREED};
+        // The weight is only read as the sort key of the last row of a page. The photo is just
+        // the file name; the adapter loads the thumbnail itself.
+        String [] projection = {PetEntry._ID,PetEntry.COLUMN_PET_NAME,PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_WEIGHT,PetEntry.COLUMN_PET_PHOTO};
+
+        if (id == SEARCH_LOADER) {
+            Uri searchUri = mFilter.appendTo(PetEntry.buildSearchUri(mSearchQuery));
+            return new CursorLoader(this,searchUri,projection,null,null,null);
+        }
 
-        return new CursorLoader(this,PetEntry.CONTENT_URI,projection,null,null,null);
+        Uri pageUri = id == PAGE_LOADER
+                ? mFilter.buildFirstPageUri(PAGE_SIZE)
+                : mFilter.buildNextPageUri(args.getLong(ARG_AFTER_ID),
+                        args.getString(ARG_AFTER_KEY), PAGE_SIZE);
+        return new CursorLoader(this,pageUri,projection,null,null,null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
-        mPetCursorAdapter.swapCursor(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchQuery != null) {
+                mPetCursorAdapter.swapPages(new Cursor[] { data });
+            }
+            return;
+        }
+
+        int page = loader.getId() - PAGE_LOADER;
+        if (page == 0) {
+            mReloading = false;
+        }
+        Page loaded = new Page(data, mFilter.getSort());
+        Page previous = mPages.get(page);
+        mPages.put(page, loaded);
+
+        // A reloaded page that now ends on a different pet shifts every later page, so those
+        // are dropped and fetched again as the user scrolls.
+        if (previous != null && page + 1 < mPageCount) {
+            boolean sameEnd = loaded.count == PAGE_SIZE && previous.count == PAGE_SIZE
+                    && loaded.lastId == previous.lastId
+                    && TextUtils.equals(loaded.lastKey, previous.lastKey);
+            if (!sameEnd) {
+                truncatePages(page);
+            }
+        }
+
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mPetCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchQuery != null) {
+                mPetCursorAdapter.swapPages(new Cursor[0]);
+            }
+            return;
+        }
+        mPages.remove(loader.getId() - PAGE_LOADER);
+        showPages();
     }
 }
\ No newline at end of file
@@ -16,7 +16,9 @@
 package com.example.android.pets;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -24,6 +26,7 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -35,16 +38,27 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
+import com.example.android.pets.data.PetWriter;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
 /**
  * Allows user to create a new pet or edit an existing one.
  */
 
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -66,6 +80,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private boolean mPetHasChanged = false;
 
+    /** The pet's values as last loaded, in the form savePet() writes them; null until loaded. */
+    private ContentValues mLoadedValues;
+
+    private ImageView mPhotoView;
+
+    private PetThumbnailLoader mPhotoLoader;
+
+    /** Image picked to become the pet's photo when it is saved; null keeps the current one. */
+    private Uri mPickedPhoto;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -76,9 +100,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoView = (ImageView) findViewById(R.id.edit_pet_photo);
+        mPhotoLoader = new PetThumbnailLoader(this,
+                getResources().getDimensionPixelSize(R.dimen.editor_photo_size));
 
         setupSpinner();
 
+        mPhotoView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                pickPhoto();
+            }
+        });
+        if (savedInstanceState != null) {
+            mPickedPhoto = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if (mPickedPhoto != null) {
+                mPhotoLoader.load(mPhotoView, mPickedPhoto.toString(), mPickedPhoto);
+            }
+        }
+
         Intent intent = getIntent();
         currentPetUri = intent.getData();
 
@@ -95,6 +135,33 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhoto);
+    }
+
+    private void pickPhoto() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivityForResult(intent, REQUEST_PICK_PHOTO);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_PICK_PHOTO && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            mPickedPhoto = data.getData();
+            mPetHasChanged = true;
+            // Decoded subsampled to the view, however large the picked image is.
+            mPhotoLoader.load(mPhotoView, mPickedPhoto.toString(), mPickedPhoto);
+        }
+    }
+
     private void setupSpinner() {
         // Create adapter for spinner. The list options are from the String array it will use
         // the spinner will use the default layout
@@ -140,7 +207,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         if (currentPetUri == null &&
                 TextUtils.isEmpty(name) && TextUtils.isEmpty(breed) &&
-                TextUtils.isEmpty(weight) && mGender == PetEntry.GENDER_UNKNOWN) {
+                TextUtils.isEmpty(weight) && mGender == PetEntry.GENDER_UNKNOWN
+                && mPickedPhoto == null) {
             return;
         }
         if (TextUtils.isEmpty(weight)) {
@@ -152,31 +220,101 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(PetEntry.COLUMN_PET_BREED,breed);
         values.put(PetEntry.COLUMN_PET_WEIGHT,Integer.parseInt(weight));
         values.put(PetEntry.COLUMN_PET_GENDER,mGender);
+        if (currentPetUri != null) {
+            removeUnchanged(values);
+        }
+        // The write finishes after this activity is gone, so report back on the app context.
+        final Context appContext = getApplicationContext();
+        final ParcelFileDescriptor photo = openPickedPhoto();
         if(currentPetUri == null)
         {
-            Uri insert = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-            if(insert!=null) {
-                Toast.makeText(this, "New Pet saved", Toast.LENGTH_SHORT).show();
-            }
-            else
-            {
-                Toast.makeText(this, "Error with saving pet", Toast.LENGTH_SHORT).show();
-            }
+            PetWriter.getInstance(this).insert(values, new PetWriter.Callback() {
+                @Override
+                public void onComplete(PetWriter.Result result) {
+                    if (result.isSuccessful()) {
+                        Toast.makeText(appContext, "New Pet saved", Toast.LENGTH_SHORT).show();
+                        savePhoto(appContext, result.uri, photo);
+                    } else {
+                        Toast.makeText(appContext, "Error with saving pet", Toast.LENGTH_SHORT).show();
+                        closeQuietly(photo);
+                    }
+                }
+            });
+            return;
         }
-        else
+        if (values.size() != 0)
         {
-            int insert = getContentResolver().update(currentPetUri, values,null,null);
-            if(insert != -1) {
-                Toast.makeText(this, "Pet Updated", Toast.LENGTH_SHORT).show();
-            }
-            else
-            {
-                Toast.makeText(this, "Error with updating pet", Toast.LENGTH_SHORT).show();
+            PetWriter.getInstance(this).update(currentPetUri, values, new PetWriter.Callback() {
+                @Override
+                public void onComplete(PetWriter.Result result) {
+                    if (result.isSuccessful()) {
+                        Toast.makeText(appContext, "Pet Updated", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, "Error with updating pet", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+        savePhoto(appContext, currentPetUri, photo);
+    }
+
+
+    /**
+     * Opens the picked photo, if any, while this activity still holds the grant to read it; the
+     * photo is only stored once the pet has been written, possibly after the activity is gone.
+     */
+    private ParcelFileDescriptor openPickedPhoto() {
+        if (mPickedPhoto == null) {
+            return null;
+        }
+        try {
+            return getContentResolver().openFileDescriptor(mPickedPhoto, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            Log.w(LOG_TAG, "Cannot read picked photo " + mPickedPhoto, e);
+            Toast.makeText(this, R.string.editor_save_photo_failed, Toast.LENGTH_SHORT).show();
+            return null;
+        }
+    }
+
+    private static void savePhoto(final Context appContext, Uri petUri, ParcelFileDescriptor photo) {
+        if (photo == null) {
+            return;
+        }
+        PetWriter.getInstance(appContext).setPhoto(petUri, photo, new PetWriter.Callback() {
+            @Override
+            public void onComplete(PetWriter.Result result) {
+                if (!result.isSuccessful()) {
+                    Toast.makeText(appContext, R.string.editor_save_photo_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
             }
+        });
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor descriptor) {
+        if (descriptor == null) {
+            return;
+        }
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close " + descriptor, e);
         }
-        Log.i("mgs       ","Leaving in switch " );
     }
 
+    /** Drops the columns whose value is still the one loaded, so only edits are written. */
+    private void removeUnchanged(ContentValues values) {
+        if (mLoadedValues == null) {
+            return;
+        }
+        for (String column : mLoadedValues.keySet()) {
+            Object loaded = mLoadedValues.get(column);
+            Object current = values.get(column);
+            if (loaded == null ? current == null : loaded.equals(current)) {
+                values.remove(column);
+            }
+        }
+    }
 
     /**
      * Setup the dropdown spinner that allows the user to select the gender of the pet.
@@ -318,15 +456,19 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private void deletePet() {
         if (currentPetUri != null) {
-            int rowsDeleted = getContentResolver().delete(currentPetUri, null, null);
-
-            if (rowsDeleted == 0) {
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            PetWriter.getInstance(this).delete(currentPetUri, new PetWriter.Callback() {
+                @Override
+                public void onComplete(PetWriter.Result result) {
+                    if (result.count == 0) {
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_delete_pet_failed),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, appContext.getString(R.string.editor_delete_pet_successful),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
 
         finish();
         }
@@ -344,7 +486,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
 
         String [] projection = {PetEntry._ID,PetEntry.COLUMN_PET_NAME,PetEntry.COLUMN_PET_BREED,PetEntry.COLUMN_PET_GENDER
-        ,PetEntry.COLUMN_PET_WEIGHT};
+        ,PetEntry.COLUMN_PET_WEIGHT,PetEntry.COLUMN_PET_PHOTO};
         return new CursorLoader(this,currentPetUri,projection,null,null,null);
     }
 
@@ -360,10 +502,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             String breed = cursor.getString(breedColumnIndex);
             int gender = cursor.getInt(genderColumnIndex);
             int weight = cursor.getInt(weightColumnIndex);
+            String photo = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO));
 
             mNameEditText.setText(name);
             mBreedEditText.setText(breed);
             mWeightEditText.setText(Integer.toString(weight));
+            if (mPickedPhoto == null) {
+                // The full photo, subsampled to the view, looks sharper here than the thumbnail.
+                mPhotoLoader.load(mPhotoView, photo, photo == null
+                        ? null : PetEntry.buildPhotoUri(ContentUris.parseId(currentPetUri)));
+            }
+
+            // An empty breed is saved as "" and read back as null.
+            mLoadedValues = new ContentValues();
+            mLoadedValues.put(PetEntry.COLUMN_PET_NAME, name);
+            mLoadedValues.put(PetEntry.COLUMN_PET_BREED, breed == null ? "" : breed);
+            mLoadedValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+            mLoadedValues.put(PetEntry.COLUMN_PET_GENDER, gender);
 
             switch (gender) {
                 case PetEntry.GENDER_MALE:
@@ -2,46 +2,166 @@ package com.example.android.pets;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.pets.data.PetsContract;
-
-import org.w3c.dom.Text;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Created by Manan on 05-03-2017.
  */
 
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.ViewHolder> {
+
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    /** Diffs are computed here, one at a time and in submission order. */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView name;
+        final TextView breed;
+        final ImageView photo;
+
+        ViewHolder(View view) {
+            super(view);
+            name = (TextView) view.findViewById(R.id.name);
+            breed = (TextView) view.findViewById(R.id.breed);
+            photo = (ImageView) view.findViewById(R.id.photo);
+        }
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final String mUnknownBreed;
+    private final OnPetClickListener mListener;
+    private final PetThumbnailLoader mThumbnails;
+
+    private PetListSnapshot mSnapshot = PetListSnapshot.EMPTY;
+
+    /** Incremented by every {@link #swapPages}; only the latest result is applied. */
+    private int mGeneration;
+
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mListener = listener;
+        mThumbnails = new PetThumbnailLoader(context,
+                context.getResources().getDimensionPixelSize(R.dimen.list_photo_size));
+        setHasStableIds(true);
+    }
 
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context,c,0);
+    /**
+     * Shows the rows of {@code pages} in order. The rows are copied out of the cursors right away,
+     * while the loaders cannot close them, so the adapter never reads them again. The copy is
+     * compared with what is on screen by {@code _id} on a background thread, and only the rows
+     * that were inserted, moved, changed or removed are dispatched. Must be called on the main
+     * thread.
+     */
+    public void swapPages(Cursor[] pages) {
+        final int generation = ++mGeneration;
+        final PetListSnapshot old = mSnapshot;
+        final PetListSnapshot fresh = PetListSnapshot.of(pages);
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new SnapshotDiff(old, fresh));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only the latest submission is applied, and nothing else can have
+                        // replaced mSnapshot since it was taken, so the diff is based on what
+                        // is on screen.
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mSnapshot = fresh;
+                        diff.dispatchUpdatesTo(PetCursorAdapter.this);
+                    }
+                });
+            }
+        });
     }
 
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item,parent,false);
+    public int getItemCount() {
+        return mSnapshot.size();
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    public long getItemId(int position) {
+        return mSnapshot.id(position);
+    }
 
-        TextView name = (TextView)view.findViewById(R.id.name);
-        TextView breed = (TextView)view.findViewById(R.id.breed);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item,parent,false);
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    mListener.onPetClick(mSnapshot.id(position));
+                }
+            }
+        });
+        return holder;
+    }
 
-        String pet_name = cursor.getString(cursor.getColumnIndex(PetsContract.PetEntry.COLUMN_PET_NAME));
-        String pet_breed = cursor.getString(cursor.getColumnIndex(PetsContract.PetEntry.COLUMN_PET_BREED));
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        char[] text = mSnapshot.text();
+
+        holder.name.setText(text, mSnapshot.nameStart(position), mSnapshot.nameLength(position));
+
+        int breedLength = mSnapshot.breedLength(position);
+        if (breedLength == 0) {
+            holder.breed.setText(mUnknownBreed);
+        } else {
+            holder.breed.setText(text, mSnapshot.breedStart(position), breedLength);
+        }
+
+        mThumbnails.load(holder.photo, text, mSnapshot.photoStart(position),
+                mSnapshot.photoLength(position), mSnapshot.id(position));
+    }
+
+    private static class SnapshotDiff extends DiffUtil.Callback {
+        private final PetListSnapshot mOld;
+        private final PetListSnapshot mNew;
+
+        SnapshotDiff(PetListSnapshot oldSnapshot, PetListSnapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.id(oldItemPosition) == mNew.id(newItemPosition);
+        }
 
-        if(TextUtils.isEmpty(pet_breed))
-        {
-            pet_breed = "Unknown Breed";
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.sameContent(oldItemPosition, mNew, newItemPosition);
         }
-        name.setText(pet_name);
-        breed.setText(pet_breed);
     }
 }
@@ -0,0 +1,154 @@
+package com.example.android.pets;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of the rows shown in the catalog. Ids are kept in a {@code long[]} and all text
+ * in one shared {@code char[]}, so a snapshot of thousands of pets is a handful of arrays rather
+ * than thousands of objects, and binding a row reads straight out of it.
+ */
+final class PetListSnapshot {
+
+    static final PetListSnapshot EMPTY = new PetListSnapshot(new long[0], new int[0], new char[0], 0);
+
+    private final long[] mIds;
+
+    /**
+     * Per row: start and length of the name, the breed and the photo file name, all into
+     * {@link #mText}.
+     */
+    private final int[] mSpans;
+
+    private final char[] mText;
+
+    private final int mSize;
+
+    private PetListSnapshot(long[] ids, int[] spans, char[] text, int size) {
+        mIds = ids;
+        mSpans = spans;
+        mText = text;
+        mSize = size;
+    }
+
+    /**
+     * Copies every row of {@code pages}, in order, out of their cursor windows. Runs on the main
+     * thread, where the loaders that own the cursors cannot close them under it; the loaders have
+     * already filled the windows, so this only copies memory.
+     */
+    static PetListSnapshot of(Cursor[] pages) {
+        int size = 0;
+        for (Cursor page : pages) {
+            size += page.getCount();
+        }
+
+        Builder builder = new Builder(size);
+        for (Cursor page : pages) {
+            int idColumn = page.getColumnIndex(PetEntry._ID);
+            int nameColumn = page.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+            int breedColumn = page.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+            int photoColumn = page.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+            page.moveToPosition(-1);
+            while (page.moveToNext()) {
+                builder.ids[builder.row] = page.getLong(idColumn);
+                builder.appendText(page, nameColumn, 0);
+                builder.appendText(page, breedColumn, 2);
+                builder.appendText(page, photoColumn, 4);
+                builder.row++;
+            }
+        }
+        return new PetListSnapshot(builder.ids, builder.spans, builder.text, size);
+    }
+
+    /** Values per row in {@link #mSpans}. */
+    private static final int SPANS = 6;
+
+    private static final class Builder {
+        final long[] ids;
+        final int[] spans;
+        final CharArrayBuffer buffer = new CharArrayBuffer(64);
+        char[] text;
+        int textLength;
+        int row;
+
+        Builder(int size) {
+            ids = new long[size];
+            spans = new int[size * SPANS];
+            text = new char[size * 16];
+        }
+
+        void appendText(Cursor cursor, int column, int field) {
+            cursor.copyStringToBuffer(column, buffer);
+            int length = buffer.sizeCopied;
+            if (textLength + length > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+            }
+            System.arraycopy(buffer.data, 0, text, textLength, length);
+            spans[row * SPANS + field] = textLength;
+            spans[row * SPANS + field + 1] = length;
+            textLength += length;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    long id(int position) {
+        return mIds[position];
+    }
+
+    char[] text() {
+        return mText;
+    }
+
+    int nameStart(int position) {
+        return mSpans[position * SPANS];
+    }
+
+    int nameLength(int position) {
+        return mSpans[position * SPANS + 1];
+    }
+
+    int breedStart(int position) {
+        return mSpans[position * SPANS + 2];
+    }
+
+    int breedLength(int position) {
+        return mSpans[position * SPANS + 3];
+    }
+
+    int photoStart(int position) {
+        return mSpans[position * SPANS + 4];
+    }
+
+    /** Length of the photo file name of row {@code position}, 0 if the pet has no photo. */
+    int photoLength(int position) {
+        return mSpans[position * SPANS + 5];
+    }
+
+    /**
+     * True when row {@code position} shows the same text and photo as {@code other}'s row
+     * {@code otherPosition}.
+     */
+    boolean sameContent(int position, PetListSnapshot other, int otherPosition) {
+        for (int field = 0; field < SPANS; field += 2) {
+            int start = mSpans[position * SPANS + field];
+            int length = mSpans[position * SPANS + field + 1];
+            int otherStart = other.mSpans[otherPosition * SPANS + field];
+            if (length != other.mSpans[otherPosition * SPANS + field + 1]) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (mText[start + i] != other.mText[otherStart + i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads pet thumbnails into image views off the main thread. Images are subsampled while they
+ * are decoded so none is much bigger than the view, and the decoded bitmaps are kept in one LRU
+ * cache bounded in bytes, so scrolling back costs nothing and memory never grows with the number
+ * of pets. The newest request is decoded first and a request whose view has since been bound to
+ * another pet is dropped unread, so a fling only decodes what ends up on screen.
+ */
+final class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Upper bound of the cache, whatever the heap. */
+    private static final int MAX_CACHE_BYTES = 16 * 1024 * 1024;
+
+    /** Share of the heap the cache may take on devices with less than that to spare. */
+    private static final int HEAP_FRACTION = 8;
+
+    private static final int DECODE_THREADS = 2;
+
+    /** Decoded thumbnails, keyed by size and image, shared by every loader in the process. */
+    private static final LruCache<Key, Bitmap> sCache = new LruCache<Key, Bitmap>(
+            (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+        @Override
+        protected int sizeOf(Key key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    /** Takes the newest request first; the ones behind it were likely scrolled past. */
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(DECODE_THREADS,
+            DECODE_THREADS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable runnable) {
+                    return offerFirst(runnable);
+                }
+            }, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "PetThumbnailLoader");
+                }
+            });
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mSize;
+
+    /** Key of the image being bound, pointing into the caller's text; main thread only. */
+    private final Key mProbe = new Key();
+
+    /** @param size the size of the views in pixels; images are decoded no smaller than this */
+    PetThumbnailLoader(Context context, int size) {
+        mResolver = context.getContentResolver();
+        mSize = size;
+    }
+
+    /**
+     * Shows the image at {@code uri} in {@code view}, or nothing if {@code uri} is null. The
+     * {@code key} must change whenever the image does, e.g. a pet's photo file name. Must be
+     * called on the main thread; a later call for the same view replaces this one.
+     */
+    void load(ImageView view, String key, Uri uri) {
+        if (uri == null) {
+            load(view, null, 0, 0, uri, 0);
+        } else {
+            char[] chars = key.toCharArray();
+            load(view, chars, 0, chars.length, uri, 0);
+        }
+    }
+
+    /**
+     * Shows the thumbnail of pet {@code id} in {@code view}, keyed by the photo file name in
+     * {@code length} chars of {@code photo} from {@code start}, or nothing if that is empty. The
+     * chars are only read during the call. Binding a view to the image it already shows, or one
+     * found in the cache, allocates nothing; the thumbnail URI is only built to decode. Must be
+     * called on the main thread; a later call for the same view replaces this one.
+     */
+    void load(ImageView view, char[] photo, int start, int length, long id) {
+        load(view, photo, start, length, null, id);
+    }
+
+    private void load(ImageView view, char[] chars, int start, int length, Uri uri, long id) {
+        Binding binding = (Binding) view.getTag(R.id.thumbnail_binding);
+        if (binding == null) {
+            binding = new Binding();
+            view.setTag(R.id.thumbnail_binding, binding);
+        }
+        if (length == 0) {
+            binding.clear();
+            view.setImageDrawable(null);
+            return;
+        }
+        mProbe.point(mSize, chars, start, length);
+        if (binding.mBound && mProbe.equals(binding.mKey)) {
+            // Bound again to the image it shows or is still loading.
+            return;
+        }
+        binding.clear();
+        binding.mKey.copy(mProbe);
+        binding.mBound = true;
+
+        Bitmap cached = sCache.get(mProbe);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        Request request = new Request(view, binding, mProbe.freeze(),
+                uri != null ? uri : PetEntry.buildThumbnailUri(id));
+        binding.mRequest = request;
+        view.setImageDrawable(null);
+        sExecutor.execute(request);
+    }
+
+    /** Puts {@code bitmap} in the cache as the {@code size} image of {@code key}. */
+    @VisibleForTesting
+    static void putCached(int size, String key, Bitmap bitmap) {
+        Key cacheKey = new Key();
+        cacheKey.point(size, key.toCharArray(), 0, key.length());
+        sCache.put(cacheKey.freeze(), bitmap);
+    }
+
+    /** Empties the cache shared by every loader. */
+    @VisibleForTesting
+    static void clearCache() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Size and image of a thumbnail. Keys in the cache own their chars; the main thread probes it
+     * with one that points into the text being bound, so a lookup copies nothing.
+     */
+    private static final class Key {
+        int mSize;
+        char[] mChars = new char[0];
+        int mStart;
+        int mLength;
+        int mHash;
+
+        void point(int size, char[] chars, int start, int length) {
+            mSize = size;
+            mChars = chars;
+            mStart = start;
+            mLength = length;
+            int hash = size;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            mHash = hash;
+        }
+
+        /**
+         * Makes this, which must own its chars, a copy of {@code other}, reusing the chars when
+         * they fit.
+         */
+        void copy(Key other) {
+            if (mChars.length < other.mLength) {
+                mChars = new char[other.mLength];
+            }
+            System.arraycopy(other.mChars, other.mStart, mChars, 0, other.mLength);
+            mSize = other.mSize;
+            mStart = 0;
+            mLength = other.mLength;
+            mHash = other.mHash;
+        }
+
+        /** Returns an owned copy of this key, fit to be kept in the cache. */
+        Key freeze() {
+            Key key = new Key();
+            key.copy(this);
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (mHash != other.mHash || mSize != other.mSize || mLength != other.mLength) {
+                return false;
+            }
+            for (int i = 0; i < mLength; i++) {
+                if (mChars[mStart + i] != other.mChars[other.mStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    /**
+     * What an image view was last bound to, kept in its tag so rebinding the same image is free.
+     * Only touched on the main thread.
+     */
+    private static final class Binding {
+        /** Whether {@link #mKey} holds the image shown or on its way. */
+        boolean mBound;
+        final Key mKey = new Key();
+        Request mRequest;
+
+        void clear() {
+            if (mRequest != null) {
+                mRequest.mCancelled = true;
+                mRequest = null;
+            }
+            mBound = false;
+        }
+    }
+
+    private final class Request implements Runnable {
+        final ImageView mView;
+        final Binding mBinding;
+        final Key mCacheKey;
+        final Uri mUri;
+        volatile boolean mCancelled;
+
+        Request(ImageView view, Binding binding, Key cacheKey, Uri uri) {
+            mView = view;
+            mBinding = binding;
+            mCacheKey = cacheKey;
+            mUri = uri;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap bitmap = sCache.get(mCacheKey);
+            if (bitmap == null) {
+                bitmap = decode(mUri);
+                if (bitmap != null) {
+                    sCache.put(mCacheKey, bitmap);
+                }
+            }
+            final Bitmap decoded = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mBinding.mRequest == Request.this) {
+                        mBinding.mRequest = null;
+                        if (decoded != null) {
+                            mView.setImageBitmap(decoded);
+                        } else {
+                            // Unbound, so binding the view to this image again retries.
+                            mBinding.mBound = false;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Decodes the image at {@code uri} at the largest power-of-two subsampling that keeps both
+     * sides at least the view size. Returns null if it cannot be read.
+     */
+    private Bitmap decode(Uri uri) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mResolver.openFileDescriptor(uri, "r");
+            if (descriptor == null) {
+                return null;
+            }
+            // Decoding from a descriptor leaves its position alone, so it can be read twice.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (options.outWidth / (options.inSampleSize * 2) >= mSize
+                    && options.outHeight / (options.inSampleSize * 2) >= mSize) {
+                options.inSampleSize *= 2;
+            }
+            // Photos have no alpha, so half the bytes of ARGB_8888 lose nothing visible here.
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null,
+                    options);
+        } catch (FileNotFoundException e) {
+            // The pet has no photo, or it was replaced since the row was read.
+            return null;
+        } catch (SecurityException e) {
+            Log.w(LOG_TAG, "No access to " + uri, e);
+            return null;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to close " + uri, e);
+                }
+            }
+        }
+    }
+}
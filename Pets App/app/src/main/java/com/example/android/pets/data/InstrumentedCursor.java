@@ -0,0 +1,69 @@
+package com.example.android.pets.data;
+
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * {@link SQLiteCursor} that remembers its SQL and reports every {@link CursorWindow} fill to
+ * {@link PetProviderStats}. Installed on {@code shelter.db} through {@link Factory}; when the
+ * stats are switched off it costs one volatile read per window move.
+ */
+final class InstrumentedCursor extends SQLiteCursor {
+
+    static final class Factory implements SQLiteDatabase.CursorFactory {
+        @Override
+        public SQLiteCursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                      String editTable, SQLiteQuery query) {
+            return new InstrumentedCursor(masterQuery, editTable, query);
+        }
+    }
+
+    private static final String SQL_PREFIX = "SQLiteQuery: ";
+
+    private final SQLiteQuery mQuery;
+
+    /** Built on the first {@link #getSql}, which only runs while the stats are on. */
+    private String mSql;
+
+    private boolean mCounted;
+
+    private InstrumentedCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+        super(driver, editTable, query);
+        mQuery = query;
+    }
+
+    String getSql() {
+        if (mSql == null) {
+            String sql = mQuery.toString();
+            mSql = sql.startsWith(SQL_PREFIX) ? sql.substring(SQL_PREFIX.length()) : sql;
+        }
+        return mSql;
+    }
+
+    @Override
+    public int getCount() {
+        // The first call runs the query and fills the first window.
+        if (!mCounted) {
+            mCounted = true;
+            if (PetProviderStats.isEnabled()) {
+                PetProviderStats.windowFilled();
+            }
+        }
+        return super.getCount();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (PetProviderStats.isEnabled() && mCounted) {
+            CursorWindow window = getWindow();
+            if (window == null || newPosition < window.getStartPosition()
+                    || newPosition >= window.getStartPosition() + window.getNumRows()) {
+                PetProviderStats.windowFilled();
+            }
+        }
+        return super.onMove(oldPosition, newPosition);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A block of pets held column by column: ids, weights and genders in primitive arrays, breeds as
+ * codes into a dictionary and names back to back in one {@code char[]}. Names are copied out of
+ * the cursor window and handed on as char ranges, so bulk readers such as {@link PetTransfer}
+ * and snapshots walk any number of pets through a few arrays that are reused from one batch to
+ * the next. Filling with {@link #fillCoded} creates no object per pet; {@link #fill} reads each
+ * breed as a string to look up its code.
+ *
+ * <p>The arrays returned by the accessors are only valid up to {@link #size()} and are
+ * overwritten by the next fill. Breed codes keep their meaning for the life of the batch; code 0
+ * is a pet without a breed.
+ */
+public final class PetBatch {
+
+    /** Columns a batch is filled from with {@link #fill}, in this order. */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+    };
+
+    private final long[] mIds;
+    private final int[] mWeights;
+    private final byte[] mGenders;
+    private final int[] mBreedCodes;
+
+    /** Per row: start and length of the name in {@link #mNames}. */
+    private final int[] mNameSpans;
+
+    private char[] mNames;
+    private int mNamesLength;
+    private final CharArrayBuffer mBuffer = new CharArrayBuffer(64);
+
+    /** Breed names by code; entry 0 stays null. */
+    private String[] mDictionary = new String[16];
+    private int mDictionarySize = 1;
+
+    /** Codes of the breeds seen by {@link #fill}, which reads breeds by name. */
+    private final Map<String, Integer> mCodes = new HashMap<>();
+
+    private int mSize;
+
+    public PetBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Batch capacity must be positive: " + capacity);
+        }
+        mIds = new long[capacity];
+        mWeights = new int[capacity];
+        mGenders = new byte[capacity];
+        mBreedCodes = new int[capacity];
+        mNameSpans = new int[capacity * 2];
+        mNames = new char[capacity * 16];
+    }
+
+    public int capacity() {
+        return mIds.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long[] ids() {
+        return mIds;
+    }
+
+    public int[] weights() {
+        return mWeights;
+    }
+
+    /** Genders as the {@code GENDER_*} constants of {@link PetEntry}. */
+    public byte[] genders() {
+        return mGenders;
+    }
+
+    /** Breed codes; see {@link #breedName}. */
+    public int[] breedCodes() {
+        return mBreedCodes;
+    }
+
+    /** Returns the breed with {@code code}, or null for code 0. */
+    public String breedName(int code) {
+        return mDictionary[code];
+    }
+
+    /** Returns the breed of the pet at {@code row}, or null if it has none. */
+    public String breed(int row) {
+        return mDictionary[mBreedCodes[row]];
+    }
+
+    /** All names back to back; see {@link #nameStart} and {@link #nameLength}. */
+    public char[] nameChars() {
+        return mNames;
+    }
+
+    public int nameStart(int row) {
+        return mNameSpans[row * 2];
+    }
+
+    public int nameLength(int row) {
+        return mNameSpans[row * 2 + 1];
+    }
+
+    /**
+     * Replaces the contents with the rows of {@code cursor} from its current position on, up to
+     * the capacity, reading the {@link #COLUMNS} in order. Breeds are coded as they are met.
+     * Returns the number of pets read; fewer than the capacity means the cursor is exhausted.
+     */
+    int fill(Cursor cursor) {
+        clear();
+        while (mSize < mIds.length && cursor.moveToNext()) {
+            int code = 0;
+            if (!cursor.isNull(2)) {
+                String breed = cursor.getString(2);
+                Integer known = mCodes.get(breed);
+                if (known == null) {
+                    known = mDictionarySize;
+                    putBreed(known, breed);
+                    mCodes.put(breed, known);
+                }
+                code = known;
+            }
+            readRow(cursor, code);
+        }
+        return mSize;
+    }
+
+    /**
+     * Like {@link #fill}, but the third column holds breed codes already, which must have been
+     * given names with {@link #putBreed}. Used by {@link PetDao}, which codes breeds by their
+     * breeds table id.
+     */
+    int fillCoded(Cursor cursor) {
+        clear();
+        while (mSize < mIds.length && cursor.moveToNext()) {
+            readRow(cursor, cursor.getInt(2));
+        }
+        return mSize;
+    }
+
+    /** Names breed {@code code}; the code may not be 0. */
+    void putBreed(int code, String name) {
+        if (code >= mDictionary.length) {
+            mDictionary = Arrays.copyOf(mDictionary, Math.max(mDictionary.length * 2, code + 1));
+        }
+        mDictionary[code] = name;
+        mDictionarySize = Math.max(mDictionarySize, code + 1);
+    }
+
+    private void clear() {
+        mSize = 0;
+        mNamesLength = 0;
+    }
+
+    private void readRow(Cursor cursor, int code) {
+        int row = mSize;
+        mIds[row] = cursor.getLong(0);
+        // Copied straight out of the cursor window, without a String in between.
+        cursor.copyStringToBuffer(1, mBuffer);
+        int length = mBuffer.sizeCopied;
+        if (mNamesLength + length > mNames.length) {
+            mNames = Arrays.copyOf(mNames, Math.max(mNames.length * 2, mNamesLength + length));
+        }
+        System.arraycopy(mBuffer.data, 0, mNames, mNamesLength, length);
+        mNameSpans[row * 2] = mNamesLength;
+        mNameSpans[row * 2 + 1] = length;
+        mNamesLength += length;
+        mBreedCodes[row] = code;
+        mGenders[row] = (byte) cursor.getInt(3);
+        mWeights[row] = cursor.getInt(4);
+        mSize++;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.pets.data;
+
+import android.util.LruCache;
+
+/**
+ * Bounded LRU cache of {@link PetRecord}s by id, used by {@link PetProvider} to answer
+ * {@code pets/#} queries without going to SQLite.
+ *
+ * <p>Writers invalidate after their change is committed. Every invalidation bumps a generation
+ * number, and a reader only caches a row if no invalidation happened while it was reading it, so
+ * a row read just before a commit never outlives that commit in the cache.
+ */
+final class PetCache {
+
+    private final LruCache<Long, PetRecord> mRecords;
+
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    PetCache(int maxRecords) {
+        mRecords = new LruCache<>(maxRecords);
+    }
+
+    synchronized PetRecord get(long id) {
+        PetRecord record = mRecords.get(id);
+        if (record == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return record;
+    }
+
+    /** Returns the value to pass to {@link #put} for a row that is about to be read. */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /** Caches {@code record} unless an invalidation happened since {@code generation}. */
+    synchronized void put(PetRecord record, long generation) {
+        if (generation == mGeneration) {
+            mRecords.put(record.id, record);
+        }
+    }
+
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRecords.remove(id);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRecords.evictAll();
+    }
+
+    synchronized long hitCount() {
+        return mHits;
+    }
+
+    synchronized long missCount() {
+        return mMisses;
+    }
+}
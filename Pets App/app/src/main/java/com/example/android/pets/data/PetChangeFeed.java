@@ -0,0 +1,51 @@
+package com.example.android.pets.data;
+
+/**
+ * The SQL behind {@link PetsContract.PetChangeEntry#CONTENT_URI}, which reads the change log
+ * that {@link PetSchema} creates. Plain Java like PetSchema, so the JVM tests read the feed with
+ * the very query the provider serves. Column names and op codes are spelled out as
+ * {@link PetsContract.PetChangeEntry} defines them.
+ */
+public final class PetChangeFeed {
+
+    /** Sequence of the oldest change still kept, or 0 when the log is empty. */
+    public static final String SQL_OLDEST = "SELECT IFNULL(MIN(seq), 0) FROM pet_changes";
+
+    /**
+     * Sequence of the latest change ever logged, in a column named seq. Read from the
+     * AUTOINCREMENT counter, which pruning leaves alone.
+     */
+    public static final String SQL_LATEST =
+            "SELECT IFNULL(MAX(seq), 0) AS seq FROM sqlite_sequence WHERE name = 'pet_changes'";
+
+    private PetChangeFeed() {
+    }
+
+    /**
+     * Returns the query for up to {@code limit} changes after {@code since} in sequence order,
+     * each insert or update joined with the pet's current values. {@code oldest} and
+     * {@code latest} are the results of {@link #SQL_OLDEST} and {@link #SQL_LATEST}. When the log
+     * has been pruned past since, or since lies beyond anything logged, a reset row (op 0) comes
+     * first, followed by every change still kept.
+     */
+    public static String query(long since, long limit, long oldest, long latest) {
+        boolean reset = since < oldest - 1 || since > latest;
+        if (reset) {
+            since = Math.max(oldest - 1, 0);
+        }
+
+        String sql = "SELECT c.seq AS seq, c.op AS op, c.pet_id AS _id, p.name AS name, "
+                + "(SELECT name FROM breeds WHERE breeds._id = p.breed_id) AS breed, "
+                + "p.gender AS gender, p.weight AS weight, p.photo AS photo "
+                + "FROM pet_changes c LEFT JOIN pets p ON p._id = c.pet_id AND c.op IN (1, 2) "
+                + "AND " + PetSchema.VISIBLE + " WHERE c.seq > " + since + " ORDER BY c.seq "
+                + "LIMIT " + limit;
+        if (reset) {
+            // The first SELECT of a compound names its columns.
+            sql = "SELECT " + since + " AS seq, 0 AS op, NULL AS _id, NULL AS name, "
+                    + "NULL AS breed, NULL AS gender, NULL AS weight, NULL AS photo "
+                    + "UNION ALL SELECT * FROM (" + sql + ")";
+        }
+        return sql;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Coalesces change notifications from {@link PetProvider}. Changes reported within one window
+ * are sent together, once per distinct URI, and changes made inside a batch are held back until
+ * the batch commits. Item URIs such as {@code pets/7} are kept as they are so observers of a
+ * single pet are not woken by unrelated rows, but once a burst touches more than
+ * {@link #MAX_ITEM_URIS} rows, or the whole table is reported, they collapse into one
+ * notification on {@link PetEntry#CONTENT_URI}.
+ */
+public final class PetChangeNotifier {
+
+    private static final int MAX_ITEM_URIS = 32;
+
+    /** URIs collected for one window or one batch. */
+    private static final class Changes {
+        final Set<Uri> uris = new LinkedHashSet<>();
+        boolean table;
+
+        void add(Uri uri) {
+            if (table) {
+                return;
+            }
+            if (uri.equals(PetEntry.CONTENT_URI) || uris.size() >= MAX_ITEM_URIS) {
+                table = true;
+                uris.clear();
+            } else {
+                uris.add(uri);
+            }
+        }
+
+        void addAll(Changes other) {
+            if (other.table) {
+                add(PetEntry.CONTENT_URI);
+                return;
+            }
+            for (Uri uri : other.uris) {
+                add(uri);
+            }
+        }
+
+        boolean isEmpty() {
+            return !table && uris.isEmpty();
+        }
+    }
+
+    /** Changes made by the current thread inside a batch, with the batch nesting depth. */
+    private static final class Batch {
+        final Changes changes = new Changes();
+        int depth;
+    }
+
+    private final ContentResolver mResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+    private Changes mPending = new Changes();
+    private boolean mFlushScheduled;
+
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param windowMillis how long to wait after the first change before notifying; 0 sends
+     *                     every change straight away (but still holds batches back)
+     */
+    public PetChangeNotifier(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        HandlerThread thread = new HandlerThread("PetChangeNotifier");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /** Records that the rows behind {@code uri} changed. */
+    public void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changes.add(uri);
+            return;
+        }
+        synchronized (mLock) {
+            mPending.add(uri);
+            scheduleFlushLocked(mWindowMillis);
+        }
+    }
+
+    /** Holds back this thread's notifications until the matching {@link #endBatch}. */
+    public void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Ends a batch. When the outermost batch ends its changes are sent right away if
+     * {@code committed}, or dropped if the transaction was rolled back.
+     */
+    public void endBatch(boolean committed) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("endBatch() without beginBatch()");
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        if (!committed || batch.changes.isEmpty()) {
+            return;
+        }
+        synchronized (mLock) {
+            mPending.addAll(batch.changes);
+            scheduleFlushLocked(0);
+        }
+    }
+
+    /** Sends everything that is pending now. */
+    public void flush() {
+        Changes changes;
+        synchronized (mLock) {
+            changes = mPending;
+            mPending = new Changes();
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(mFlush);
+        }
+        if (changes.table) {
+            mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Uri uri : changes.uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    private void scheduleFlushLocked(long delayMillis) {
+        if (delayMillis == 0) {
+            mHandler.removeCallbacks(mFlush);
+            mHandler.post(mFlush);
+            mFlushScheduled = true;
+        } else if (!mFlushScheduled) {
+            mHandler.postDelayed(mFlush, delayMillis);
+            mFlushScheduled = true;
+        }
+    }
+}
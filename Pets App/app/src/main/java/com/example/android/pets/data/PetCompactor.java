@@ -0,0 +1,143 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Purges deleted pets in the background. A delete only flags its rows, or for a delete of every
+ * pet raises the deleted_through watermark, so the rows keep their place in the table, its
+ * indexes and the search index until this removes them. Rows go {@link #BATCH_ROWS} at a time,
+ * each batch its own short transaction so provider writes never wait long, and the freed pages
+ * are then handed back to the file system with an incremental vacuum. The photo files of the
+ * purged pets are swept last.
+ */
+final class PetCompactor {
+
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    /** Deleted rows purged per transaction. */
+    static final int BATCH_ROWS = 500;
+
+    /** Free pages returned to the file system per incremental vacuum step. */
+    private static final int VACUUM_PAGES = 256;
+
+    /** Auto-vacuum mode in which freed pages wait for an explicit incremental vacuum. */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final String SQL_PURGE_CLEARED = "DELETE FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "<=(SELECT "
+            + PetDbHelper.COLUMN_DELETED_THROUGH + " FROM " + PetDbHelper.META_TABLE_NAME
+            + ") ORDER BY " + PetEntry._ID + " LIMIT " + BATCH_ROWS + ")";
+
+    private static final String SQL_PURGE_FLAGGED = "DELETE FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.COLUMN_DELETED + "=1 LIMIT "
+            + BATCH_ROWS + ")";
+
+    private static final String SQL_HAS_DELETED = "SELECT EXISTS (SELECT 1 FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "<=(SELECT "
+            + PetDbHelper.COLUMN_DELETED_THROUGH + " FROM " + PetDbHelper.META_TABLE_NAME
+            + ")) OR EXISTS (SELECT 1 FROM " + PetEntry.TABLE_NAME + " WHERE "
+            + PetDbHelper.COLUMN_DELETED + "=1)";
+
+    private final PetDbHelper mDbHelper;
+    private final PetPhotos mPhotos;
+    private final long mDelayMillis;
+    private final Handler mHandler;
+
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                int purged = compact(db, Long.MAX_VALUE);
+                int swept = mPhotos.sweep(db);
+                Log.v(LOG_TAG, purged + " deleted pets purged, " + swept + " photo files swept");
+            } catch (SQLException | IllegalStateException e) {
+                // The database may have been closed under us; the next delete tries again.
+                Log.w(LOG_TAG, "Compaction failed", e);
+            }
+        }
+    };
+
+    /**
+     * @param delayMillis how long to wait after the last delete before purging, so a burst of
+     *                    deletes is compacted in one pass
+     */
+    PetCompactor(PetDbHelper dbHelper, PetPhotos photos, long delayMillis) {
+        mDbHelper = dbHelper;
+        mPhotos = photos;
+        mDelayMillis = delayMillis;
+        HandlerThread thread = new HandlerThread("PetCompactor",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /** Compacts once no further call has been made for the delay. */
+    void schedule() {
+        mHandler.removeCallbacks(mCompact);
+        mHandler.postDelayed(mCompact, mDelayMillis);
+    }
+
+    /**
+     * Purges deleted pets until none are left or {@code budgetMillis} has run out, then vacuums
+     * the pages that are free. A batch under way when the budget runs out is still finished.
+     * Returns the number of pets purged.
+     */
+    static int compact(SQLiteDatabase db, long budgetMillis) {
+        long start = SystemClock.elapsedRealtime();
+        int purged = 0;
+        SQLiteStatement purgeCleared = db.compileStatement(SQL_PURGE_CLEARED);
+        SQLiteStatement purgeFlagged = db.compileStatement(SQL_PURGE_FLAGGED);
+        try {
+            while (SystemClock.elapsedRealtime() - start < budgetMillis) {
+                // Rows below the watermark come out as rowid ranges, flagged rows by index.
+                int rows = purgeCleared.executeUpdateDelete();
+                if (rows == 0) {
+                    rows = purgeFlagged.executeUpdateDelete();
+                }
+                if (rows == 0) {
+                    break;
+                }
+                purged += rows;
+            }
+        } finally {
+            purgeCleared.close();
+            purgeFlagged.close();
+        }
+        vacuum(db, start, budgetMillis);
+        return purged;
+    }
+
+    /** Whether deleted pets are still waiting to be purged. */
+    static boolean hasDeletedPets(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, SQL_HAS_DELETED, null) != 0;
+    }
+
+    private static void vacuum(SQLiteDatabase db, long start, long budgetMillis) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        long free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        while (free > 0 && SystemClock.elapsedRealtime() - start < budgetMillis) {
+            PetDbHelper.pragma(db, "incremental_vacuum(" + VACUUM_PAGES + ")");
+            long left = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (left >= free) {
+                break;
+            }
+            free = left;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Typed reads of the pets table for code running next to the database, returning
+ * {@link PetBatch}es instead of cursors. Breeds come out as their breeds table ids, so the rows
+ * are read from the table itself without looking a name up per pet.
+ */
+final class PetDao {
+
+    private static final String SQL_PAGE = "SELECT " + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", IFNULL(" + PetDbHelper.COLUMN_BREED_ID + ", 0), "
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SQL_VISIBLE + " AND " + PetEntry._ID
+            + ">? ORDER BY " + PetEntry._ID + " LIMIT ?";
+
+    private static final String SQL_BREEDS = "SELECT _id, name FROM "
+            + PetDbHelper.BREEDS_TABLE_NAME;
+
+    private final PetDbHelper mDbHelper;
+
+    PetDao(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /** Reads the current row of a cursor queried with {@link PetRecord#COLUMNS}. */
+    static PetRecord readRecord(Cursor cursor) {
+        return new PetRecord(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getInt(4), cursor.getString(5));
+    }
+
+    /**
+     * Fills {@code batch} with the pets after {@code afterId} in id order, as many as it holds.
+     * Returns the number read; fewer than the capacity means there are no more.
+     */
+    int readAfter(long afterId, PetBatch batch) {
+        return readAfter(mDbHelper.getReadableDatabase(), afterId, batch);
+    }
+
+    /**
+     * Like {@link #readAfter(long, PetBatch)}, but reads through {@code db}. Run it inside a
+     * transaction on {@code db} to read a consistent set of batches.
+     */
+    int readAfter(SQLiteDatabase db, long afterId, PetBatch batch) {
+        // The breeds are few, and reading them with every batch keeps up with new ones.
+        Cursor breeds = db.rawQuery(SQL_BREEDS, null);
+        try {
+            while (breeds.moveToNext()) {
+                batch.putBreed(breeds.getInt(0), breeds.getString(1));
+            }
+        } finally {
+            breeds.close();
+        }
+
+        Cursor cursor = db.rawQuery(SQL_PAGE, new String[] {
+                String.valueOf(afterId), String.valueOf(batch.capacity()) });
+        try {
+            return batch.fillCoded(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import com.example.android.pets.data.PetsContract.PetEntry;
+import android.os.Build;
 import com.example.android.pets.CatalogActivity;
 
 /**
@@ -12,28 +13,158 @@ import com.example.android.pets.CatalogActivity;
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
     public static final String DATABASE_NAME = "shelter.db";
 
+    /** Full-text index over the name and breed of every pet, keyed by docid = pet id. */
+    static final String FTS_TABLE_NAME = "pets_fts";
+
+    /** Every breed name, stored once and referenced from the pets table by id. */
+    static final String BREEDS_TABLE_NAME = "breeds";
+
+    /** Column of the pets table holding the breeds row id, or null for an unknown breed. */
+    static final String COLUMN_BREED_ID = "breed_id";
+
+    /**
+     * The pets table with the breed name looked up again under
+     * {@link PetsContract.PetEntry#COLUMN_PET_BREED}, so reads see the columns of the contract.
+     * All queries go through it.
+     */
+    static final String PETS_VIEW_NAME = "pets_view";
+
+    /**
+     * Tombstone column of the pets table: 1 once a pet has been deleted, until
+     * {@link PetCompactor} purges the row.
+     */
+    static final String COLUMN_DELETED = "deleted";
+
+    /** Single-row table of bookkeeping values for the pets table. */
+    static final String META_TABLE_NAME = "pets_meta";
+
+    /**
+     * Column of the meta table: every pet with an id up to this one was removed by deleting all
+     * pets at once, and is only waiting to be purged.
+     */
+    static final String COLUMN_DELETED_THROUGH = "deleted_through";
+
+    /** WHERE clause over the pets table that hides deleted pets; see {@link PetSchema#VISIBLE}. */
+    static final String SQL_VISIBLE = PetSchema.VISIBLE;
+
+    /**
+     * Running count and total weight of the pets per gender and breed, kept in step with the
+     * pets table by triggers so aggregates never scan the pets.
+     */
+    static final String STATS_TABLE_NAME = "pet_stats";
+
+    /** Column of the stats table holding the breed id, or 0 for pets without a breed. */
+    static final String COLUMN_STATS_BREED_KEY = "breed_key";
+
+    /** Column of the stats table holding the number of pets in the group. */
+    static final String COLUMN_STATS_PET_COUNT = "pet_count";
+
+    /** Expression giving the id of the breed whose name is bound to it, or null if none. */
+    static final String SQL_BREED_ID = "(SELECT _id FROM " + BREEDS_TABLE_NAME + " WHERE name=?)";
+
+    /** Adds the bound breed name to the breeds table unless it is already there. */
+    static final String SQL_ADD_BREED = "INSERT OR IGNORE INTO " + BREEDS_TABLE_NAME
+            + " (name) VALUES (?)";
+
+    /** Copies committed WAL frames into the database without waiting for readers. */
+    public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+
+    /** Checkpoints everything and truncates the WAL file; waits for readers and writers. */
+    public static final String CHECKPOINT_TRUNCATE = "TRUNCATE";
+
+    private final PetDbTuning mTuning;
+
     public PetDbHelper(Context context) {
-        super(context,DATABASE_NAME,null,DATABASE_VERSION);
+        this(context, PetDbTuning.DEFAULT);
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase db) {
+    public PetDbHelper(Context context, PetDbTuning tuning) {
+        super(context,DATABASE_NAME,new InstrumentedCursor.Factory(),DATABASE_VERSION);
+        mTuning = tuning;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
 
-        String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
-                                + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                                + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-                                + PetEntry.COLUMN_PET_BREED + " TEXT, "
-                                + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-                                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Only called on API 16+, before onCreate, which is the one time page_size can still apply.
+        db.setPageSize(mTuning.pageSize);
+        enableForeignKeys(db);
+        if (!db.isReadOnly()) {
+            // Lets PetCompactor return the pages of purged pets to the file system. Takes effect
+            // on new databases and on the platform's default of FULL; a database created with
+            // auto_vacuum off keeps it until PetMaintenance rebuilds the file with a VACUUM.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        }
+    }
 
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        PetMigrations.createBaseSchema(db);
+        PetMigrations.migrate(db, PetMigrations.BASE_VERSION, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        PetMigrations.migrate(db, oldVersion, newVersion);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // onConfigure is never called here.
+            enableForeignKeys(db);
+            db.enableWriteAheadLogging();
+        }
+        // Only the primary connection gets here; see PetDbTuning for what that means.
+        db.execSQL("PRAGMA cache_size = " + mTuning.cacheSizePages);
+        db.execSQL("PRAGMA synchronous = " + mTuning.synchronous);
+        pragma(db, "wal_autocheckpoint = " + mTuning.walAutoCheckpointPages);
+    }
+
+    /** Makes pets.breed_id name a breed; setForeignKeyConstraintsEnabled is only on API 16+. */
+    private static void enableForeignKeys(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.setForeignKeyConstraintsEnabled(true);
+        } else {
+            db.execSQL("PRAGMA foreign_keys = ON");
+        }
+    }
+
+    /**
+     * Runs a WAL checkpoint with one of the {@code CHECKPOINT_*} modes, e.g. after a large import
+     * or from idle-time maintenance.
+     */
+    public void checkpoint(String mode) {
+        pragma(getWritableDatabase(), "wal_checkpoint(" + mode + ")");
+    }
+
+    /**
+     * Opens a connection of its own to the database, read-only, for long reads such as a
+     * snapshot. A transaction on the helper's database always takes the pool's one writing
+     * connection, which writers then wait for; one on this connection only takes a read
+     * snapshot. The caller closes it.
+     */
+    SQLiteDatabase openReader() {
+        return SQLiteDatabase.openDatabase(getWritableDatabase().getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+    }
 
+    /** Runs a PRAGMA that reports a result row, which execSQL refuses. */
+    static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 }
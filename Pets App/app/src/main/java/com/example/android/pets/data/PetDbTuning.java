@@ -0,0 +1,62 @@
+package com.example.android.pets.data;
+
+/**
+ * Connection settings applied by {@link PetDbHelper} every time {@code shelter.db} is opened.
+ * The database always runs in write-ahead-log mode so catalog reads are not blocked by writes;
+ * these values trade durability and memory against write and read speed.
+ *
+ * <p>The pragmas are set in {@code onOpen}, which only sees the pool's primary connection. The
+ * extra read-only connections that write-ahead logging opens for concurrent queries, and the one
+ * {@link PetDbHelper#openReader} opens, keep SQLite's defaults. Every write and checkpoint goes
+ * through the primary connection, so {@link #synchronous} and {@link #walAutoCheckpointPages}
+ * govern all of them; {@link #cacheSizePages} only sizes the primary connection's cache.
+ */
+public final class PetDbTuning {
+
+    /** Sync at every commit; safest, slowest. */
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * Sync only at checkpoints. Cannot corrupt the database in WAL mode, but the last commits
+     * may be lost on power failure.
+     */
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+
+    /** Never sync. Only suitable for throwaway databases. */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+
+    public static final PetDbTuning DEFAULT = new PetDbTuning(4096, 2000, SYNCHRONOUS_NORMAL, 1000);
+
+    /** Page size in bytes. Only takes effect when the database file is first created. */
+    public final int pageSize;
+
+    /**
+     * Number of pages the primary connection keeps in its page cache. The other connections keep
+     * SQLite's default.
+     */
+    public final int cacheSizePages;
+
+    /** One of the {@code SYNCHRONOUS_*} levels. */
+    public final String synchronous;
+
+    /**
+     * Number of WAL pages after which a commit runs a passive checkpoint. Larger values make
+     * bursts of writes cheaper at the cost of a bigger WAL file; 0 disables automatic checkpoints
+     * and leaves them to {@link PetDbHelper#checkpoint}.
+     */
+    public final int walAutoCheckpointPages;
+
+    public PetDbTuning(int pageSize, int cacheSizePages, String synchronous, int walAutoCheckpointPages) {
+        if (Integer.bitCount(pageSize) != 1 || pageSize < 512 || pageSize > 65536) {
+            throw new IllegalArgumentException("Page size must be a power of two in [512, 65536]");
+        }
+        if (!SYNCHRONOUS_FULL.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                && !SYNCHRONOUS_OFF.equals(synchronous)) {
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        this.pageSize = pageSize;
+        this.cacheSizePages = cacheSizePages;
+        this.synchronous = synchronous;
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pets a {@link PetSubscription} holds, patched one {@link PetChangeFeed} entry at a time.
+ * Plain Java like PetChangeFeed, so the JVM tests drive it with the feed the provider serves.
+ * Column names and op codes are spelled out as {@link PetsContract} defines them. Not thread
+ * safe.
+ */
+final class PetLiveResult {
+
+    private static final int OP_DELETE = 3;
+    private static final int OP_DELETE_THROUGH = 4;
+
+    private final Integer mGender;
+    private final String mBreed;
+    private final Integer mMinWeight;
+    private final Integer mMaxWeight;
+    private final Comparator<PetRecord> mOrder;
+
+    private final List<PetRecord> mPets = new ArrayList<>();
+    private final Map<Long, PetRecord> mById = new HashMap<>();
+
+    /**
+     * Creates an empty result for the pets matching the given filter values, any of which may be
+     * null, sorted on {@code sort}.
+     */
+    PetLiveResult(Integer gender, String breed, Integer minWeight, Integer maxWeight,
+            String sort) {
+        mGender = gender;
+        mBreed = breed;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+        mOrder = order(sort);
+    }
+
+    /** Replaces the result with {@code pets}, every one of which matches the filter. */
+    void reset(List<PetRecord> pets) {
+        mPets.clear();
+        mById.clear();
+        for (PetRecord pet : pets) {
+            mPets.add(pet);
+            mById.put(pet.id, pet);
+        }
+        // Patching relies on the exact comparator order, which differs from SQLite's byte order
+        // only for rare text.
+        Collections.sort(mPets, mOrder);
+    }
+
+    /**
+     * Applies one feed entry other than a reset: {@code op} and {@code id} as the feed has them,
+     * and {@code pet} with the pet's current values, or null if the pet is gone. Returns whether
+     * the result changed.
+     */
+    boolean apply(int op, long id, PetRecord pet) {
+        if (op == OP_DELETE_THROUGH) {
+            return removeThrough(id);
+        }
+        if (op == OP_DELETE || pet == null) {
+            // The pet has been deleted since an insert or update was logged.
+            return remove(id);
+        }
+        return matches(pet) ? put(pet) : remove(id);
+    }
+
+    /** Returns a copy of the matching pets in sort order. */
+    List<PetRecord> pets() {
+        return Collections.unmodifiableList(new ArrayList<>(mPets));
+    }
+
+    /** Tests {@code pet} against the filter the way the provider's WHERE clause does. */
+    private boolean matches(PetRecord pet) {
+        return (mGender == null || mGender == pet.gender)
+                && (mBreed == null || mBreed.equals(pet.breed))
+                && (mMinWeight == null || pet.weight >= mMinWeight)
+                && (mMaxWeight == null || pet.weight <= mMaxWeight);
+    }
+
+    private boolean put(PetRecord pet) {
+        PetRecord previous = mById.put(pet.id, pet);
+        if (previous != null) {
+            if (sameValues(previous, pet)) {
+                return false;
+            }
+            mPets.remove(Collections.binarySearch(mPets, previous, mOrder));
+        }
+        mPets.add(-Collections.binarySearch(mPets, pet, mOrder) - 1, pet);
+        return true;
+    }
+
+    private boolean remove(long id) {
+        PetRecord previous = mById.remove(id);
+        if (previous == null) {
+            return false;
+        }
+        mPets.remove(Collections.binarySearch(mPets, previous, mOrder));
+        return true;
+    }
+
+    private boolean removeThrough(long id) {
+        boolean changed = false;
+        for (Iterator<PetRecord> it = mPets.iterator(); it.hasNext(); ) {
+            PetRecord pet = it.next();
+            if (pet.id <= id) {
+                it.remove();
+                mById.remove(pet.id);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean sameValues(PetRecord a, PetRecord b) {
+        return a.gender == b.gender && a.weight == b.weight && a.name.equals(b.name)
+                && (a.breed == null ? b.breed == null : a.breed.equals(b.breed))
+                && (a.photo == null ? b.photo == null : a.photo.equals(b.photo));
+    }
+
+    /**
+     * Orders records as the provider sorts on {@code sort}: nulls first, then by value, with the
+     * id breaking ties.
+     */
+    private static Comparator<PetRecord> order(final String sort) {
+        if (!"_id".equals(sort) && !"name".equals(sort) && !"breed".equals(sort)
+                && !"weight".equals(sort)) {
+            throw new IllegalArgumentException("Cannot sort on " + sort);
+        }
+        return new Comparator<PetRecord>() {
+            @Override
+            public int compare(PetRecord a, PetRecord b) {
+                int result;
+                switch (sort) {
+                    case "name":
+                        result = compareText(a.name, b.name);
+                        break;
+                    case "breed":
+                        result = compareText(a.breed, b.breed);
+                        break;
+                    case "weight":
+                        result = a.weight < b.weight ? -1 : (a.weight == b.weight ? 0 : 1);
+                        break;
+                    default:
+                        result = 0;
+                        break;
+                }
+                if (result != 0) {
+                    return result;
+                }
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        };
+    }
+
+    private static int compareText(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.android.pets.data;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Idle-time upkeep of the pets database, run by {@link PetMaintenanceJob} through
+ * {@link PetsContract#METHOD_RUN_MAINTENANCE}. A run works through the steps in order within a
+ * time budget: purging deleted pets with an incremental vacuum, rebuilding a database made
+ * without incremental vacuuming once, refreshing the planner statistics, truncating the WAL and
+ * checking the file's integrity. Statistics are refreshed one table at a
+ * time, and a step or table is only started when the time it took last run is left, so no run
+ * overshoots its budget by more than one slice. A run that runs out of time leaves the rest to
+ * the next one, which picks up where it stopped. What each run did is kept in shared
+ * preferences, together with the time of a probe query, so plans and file size can be followed
+ * over months of churn.
+ */
+final class PetMaintenance {
+
+    private static final String LOG_TAG = PetMaintenance.class.getSimpleName();
+
+    static final String PREFS_NAME = "pet_maintenance";
+
+    private static final int STEP_COMPACT = 0;
+    private static final int STEP_VACUUM = 1;
+    private static final int STEP_OPTIMIZE = 2;
+    private static final int STEP_CHECKPOINT = 3;
+    private static final int STEP_INTEGRITY = 4;
+    private static final int STEPS = 5;
+
+    /** PRAGMA auto_vacuum of a database whose free pages are never returned. */
+    private static final long AUTO_VACUUM_NONE = 0;
+
+    private static final String KEY_NEXT_STEP = "next_step";
+    private static final String KEY_RUNS = "runs";
+    private static final String KEY_LAST_RUN = "last_run";
+    private static final String KEY_DURATION = "duration_millis";
+    private static final String KEY_STEPS = "steps";
+    private static final String KEY_PURGED = "purged";
+    private static final String KEY_SWEPT = "swept";
+    private static final String KEY_VACUUM = "vacuum";
+    private static final String KEY_STATISTICS = "statistics";
+    private static final String KEY_INTEGRITY = "integrity";
+    private static final String KEY_SIZE_BEFORE = "size_before";
+    private static final String KEY_SIZE_AFTER = "size_after";
+    private static final String KEY_PROBE_MICROS = "probe_micros";
+
+    /** Table the statistics step carries on from, if the last run stopped part way. */
+    private static final String KEY_ANALYZE_NEXT = "analyze_next";
+
+    /** Prefix of the time each slice took when last run, in milliseconds. */
+    private static final String KEY_COST_PREFIX = "cost_millis.";
+
+    /** Tables whose statistics are refreshed, in name order; FTS keeps no useful ones. */
+    private static final String SQL_TABLES = "SELECT name FROM sqlite_master WHERE type = "
+            + "'table' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' AND name NOT LIKE '"
+            + PetDbHelper.FTS_TABLE_NAME + "%' ORDER BY name";
+
+    /** Integrity problems reported at most; one is enough to know the file is damaged. */
+    private static final int INTEGRITY_ERRORS = 10;
+
+    /**
+     * Query timed at the end of every run: the catalog's first page in name order, which leans
+     * on the planner picking the name index.
+     */
+    private static final String SQL_PROBE = "SELECT " + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_PHOTO + " FROM " + PetDbHelper.PETS_VIEW_NAME + " ORDER BY "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + " LIMIT 100";
+
+    private final PetDbHelper mDbHelper;
+    private final PetPhotos mPhotos;
+    private final SharedPreferences mPrefs;
+
+    PetMaintenance(PetDbHelper dbHelper, PetPhotos photos, SharedPreferences prefs) {
+        mDbHelper = dbHelper;
+        mPhotos = photos;
+        mPrefs = prefs;
+    }
+
+    /**
+     * Runs the steps left from the last run, then the others, until all are done or
+     * {@code budgetMillis} has run out. The first slice of a run always goes ahead, so a slice
+     * that takes longer than the whole budget still gets done. Returns whether every step ran.
+     */
+    synchronized boolean run(long budgetMillis) {
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + budgetMillis;
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SharedPreferences.Editor metrics = mPrefs.edit()
+                .remove(KEY_PURGED)
+                .remove(KEY_SWEPT)
+                .remove(KEY_VACUUM)
+                .remove(KEY_STATISTICS)
+                .remove(KEY_INTEGRITY);
+        long sizeBefore = databaseSize(db);
+
+        int step = mPrefs.getInt(KEY_NEXT_STEP, 0);
+        int done = 0;
+        while (step < STEPS && SystemClock.elapsedRealtime() < deadline) {
+            if (!runStep(db, step, deadline, done == 0, metrics)) {
+                break;
+            }
+            step++;
+            done++;
+        }
+        boolean finished = step == STEPS;
+
+        long duration = SystemClock.elapsedRealtime() - start;
+        metrics.putInt(KEY_NEXT_STEP, finished ? 0 : step)
+                .putInt(KEY_RUNS, mPrefs.getInt(KEY_RUNS, 0) + 1)
+                .putLong(KEY_LAST_RUN, System.currentTimeMillis())
+                .putLong(KEY_DURATION, duration)
+                .putInt(KEY_STEPS, done)
+                .putLong(KEY_SIZE_BEFORE, sizeBefore)
+                .putLong(KEY_SIZE_AFTER, databaseSize(db))
+                .putLong(KEY_PROBE_MICROS, probe(db))
+                .apply();
+        Log.i(LOG_TAG, done + " maintenance steps in " + duration + " ms"
+                + (finished ? "" : ", " + (STEPS - step) + " left for the next run"));
+        return finished;
+    }
+
+    /**
+     * Runs {@code step}, or as much of it as fits before {@code deadline}; {@code first} lets
+     * its first slice go ahead whatever it is expected to cost. Returns whether the step is done;
+     * if not, the next run starts with it.
+     */
+    private boolean runStep(SQLiteDatabase db, int step, long deadline, boolean first,
+                            SharedPreferences.Editor metrics) {
+        switch (step) {
+            case STEP_COMPACT:
+                metrics.putInt(KEY_PURGED, PetCompactor.compact(db,
+                        deadline - SystemClock.elapsedRealtime()));
+                if (SystemClock.elapsedRealtime() >= deadline
+                        || PetCompactor.hasDeletedPets(db)) {
+                    // Pets or free pages are left; their photos are swept once they are gone.
+                    return false;
+                }
+                metrics.putInt(KEY_SWEPT, mPhotos.sweep(db));
+                return true;
+            case STEP_VACUUM:
+                // Databases created before incremental vacuuming have auto_vacuum off, which
+                // only a VACUUM can change, and until then the compact step frees no pages.
+                if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                        != AUTO_VACUUM_NONE) {
+                    return true;
+                }
+                // It rewrites the whole file once, at a cost never measured before, so it only
+                // runs as the first slice of a run.
+                if (!first) {
+                    metrics.putString(KEY_VACUUM, "pending");
+                    return false;
+                }
+                long vacuumStarted = SystemClock.elapsedRealtime();
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+                recordCost(metrics, "vacuum", vacuumStarted);
+                metrics.putString(KEY_VACUUM, "rebuilt");
+                return true;
+            case STEP_OPTIMIZE:
+                // PRAGMA optimize only analyses the tables whose statistics are stale, but is a
+                // silent no-op before SQLite 3.18; older platforms analyse table by table.
+                if (sqliteVersionAtLeast(db, 3, 18)) {
+                    if (!fits("optimize", deadline, first)) {
+                        return false;
+                    }
+                    long started = SystemClock.elapsedRealtime();
+                    PetDbHelper.pragma(db, "optimize");
+                    recordCost(metrics, "optimize", started);
+                    metrics.putString(KEY_STATISTICS, "optimize");
+                    return true;
+                }
+                return analyze(db, deadline, first, metrics);
+            case STEP_CHECKPOINT:
+                if (!fits("checkpoint", deadline, first)) {
+                    return false;
+                }
+                long checkpointStarted = SystemClock.elapsedRealtime();
+                mDbHelper.checkpoint(PetDbHelper.CHECKPOINT_TRUNCATE);
+                recordCost(metrics, "checkpoint", checkpointStarted);
+                return true;
+            case STEP_INTEGRITY:
+                if (!fits("quick_check", deadline, first)) {
+                    return false;
+                }
+                long checkStarted = SystemClock.elapsedRealtime();
+                String integrity = quickCheck(db);
+                recordCost(metrics, "quick_check", checkStarted);
+                if (!"ok".equals(integrity)) {
+                    Log.e(LOG_TAG, "Pets database failed its integrity check: " + integrity);
+                }
+                metrics.putString(KEY_INTEGRITY, integrity);
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown maintenance step " + step);
+        }
+    }
+
+    /**
+     * Analyses the tables in name order from the one the last run stopped at, each while the
+     * time it took last run is left. Returns whether every table was analysed.
+     */
+    private boolean analyze(SQLiteDatabase db, long deadline, boolean first,
+                            SharedPreferences.Editor metrics) {
+        String from = mPrefs.getString(KEY_ANALYZE_NEXT, "");
+        int analyzed = 0;
+        Cursor tables = db.rawQuery(SQL_TABLES, null);
+        try {
+            while (tables.moveToNext()) {
+                String table = tables.getString(0);
+                if (table.compareTo(from) < 0) {
+                    continue;
+                }
+                if (!fits("analyze." + table, deadline, first && analyzed == 0)) {
+                    metrics.putString(KEY_ANALYZE_NEXT, table)
+                            .putString(KEY_STATISTICS, "analyze " + analyzed + " tables");
+                    return false;
+                }
+                long started = SystemClock.elapsedRealtime();
+                db.execSQL("ANALYZE \"" + table + "\"");
+                recordCost(metrics, "analyze." + table, started);
+                analyzed++;
+            }
+        } finally {
+            tables.close();
+        }
+        metrics.remove(KEY_ANALYZE_NEXT)
+                .putString(KEY_STATISTICS, "analyze " + analyzed + " tables");
+        return true;
+    }
+
+    /**
+     * Whether the slice named {@code slice} is expected to end before {@code deadline}, judging
+     * by the time it took last run; {@code force} lets it go ahead regardless.
+     */
+    private boolean fits(String slice, long deadline, boolean force) {
+        long left = deadline - SystemClock.elapsedRealtime();
+        return left > 0 && (force || mPrefs.getLong(KEY_COST_PREFIX + slice, 0) < left);
+    }
+
+    private static void recordCost(SharedPreferences.Editor metrics, String slice,
+                                   long started) {
+        metrics.putLong(KEY_COST_PREFIX + slice, SystemClock.elapsedRealtime() - started);
+    }
+
+    /**
+     * Returns "ok", or the problems found separated by newlines. Quick check skips matching
+     * every index against its table, the part of a full integrity check that grows with the
+     * pets, and still finds damaged pages and records.
+     */
+    private static String quickCheck(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA quick_check(" + INTEGRITY_ERRORS + ")", null);
+        try {
+            StringBuilder result = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (result.length() > 0) {
+                    result.append('\n');
+                }
+                result.append(cursor.getString(0));
+            }
+            return result.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Reads every row of {@link #SQL_PROBE} and returns how long that took in microseconds. */
+    private static long probe(SQLiteDatabase db) {
+        long start = System.nanoTime();
+        Cursor cursor = db.rawQuery(SQL_PROBE, null);
+        try {
+            // The window is filled, and the query run, on the first move.
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    private static long databaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    private static boolean sqliteVersionAtLeast(SQLiteDatabase db, int major, int minor) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null)
+                .split("\\.");
+        try {
+            int actualMajor = Integer.parseInt(version[0]);
+            int actualMinor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+            return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** Describes the last run for {@link PetsContract#METHOD_DUMP_STATS}. */
+    String report() {
+        int runs = mPrefs.getInt(KEY_RUNS, 0);
+        if (runs == 0) {
+            return "Maintenance: never run\n";
+        }
+        long ago = System.currentTimeMillis() - mPrefs.getLong(KEY_LAST_RUN, 0);
+        return "Maintenance: runs=" + runs
+                + " last=" + ago / (60 * 1000) + "min ago"
+                + " took=" + mPrefs.getLong(KEY_DURATION, 0) + "ms"
+                + " steps=" + mPrefs.getInt(KEY_STEPS, 0)
+                + " nextStep=" + mPrefs.getInt(KEY_NEXT_STEP, 0)
+                + " purged=" + mPrefs.getInt(KEY_PURGED, 0)
+                + " swept=" + mPrefs.getInt(KEY_SWEPT, 0)
+                + " vacuum=" + mPrefs.getString(KEY_VACUUM, "-")
+                + " statistics=" + mPrefs.getString(KEY_STATISTICS, "-")
+                + " integrity=" + mPrefs.getString(KEY_INTEGRITY, "-")
+                + " size=" + mPrefs.getLong(KEY_SIZE_BEFORE, 0) / 1024 + "->"
+                + mPrefs.getLong(KEY_SIZE_AFTER, 0) / 1024 + "KB"
+                + " probe=" + mPrefs.getLong(KEY_PROBE_MICROS, 0) + "us\n";
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.database.SQLException;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Runs {@link PetsContract#METHOD_RUN_MAINTENANCE} once a day while the device is idle and
+ * charging. Only available from Lollipop; check the version before calling {@link #schedule}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetMaintenanceJob extends JobService {
+
+    private static final String LOG_TAG = PetMaintenanceJob.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+
+    private static final long PERIOD_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Time one run may take, well inside the ten minutes the scheduler allows a job. */
+    private static final long BUDGET_MILLIS = 30 * 1000;
+
+    /** Schedules the job unless it already is. */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, PetMaintenanceJob.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(PERIOD_MILLIS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean finished = true;
+                try {
+                    Bundle result = getContentResolver().call(PetEntry.CONTENT_URI,
+                            PetsContract.METHOD_RUN_MAINTENANCE, String.valueOf(BUDGET_MILLIS),
+                            null);
+                    finished = result == null
+                            || result.getBoolean(PetsContract.EXTRA_FINISHED, true);
+                } catch (SQLException | IllegalStateException e) {
+                    // Retried with the next period rather than backed off into a loop.
+                    Log.w(LOG_TAG, "Maintenance failed", e);
+                }
+                // Steps left over run again soon, once the device is still idle.
+                jobFinished(params, !finished);
+            }
+        }, "PetMaintenanceJob").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The run in progress still ends within its budget; ask for the job again soon.
+        return true;
+    }
+}
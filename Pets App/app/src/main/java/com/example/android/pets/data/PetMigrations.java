@@ -0,0 +1,47 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Runs the schema history of {@code shelter.db}, kept in {@link PetSchema}. Every upgrade takes
+ * the database up by exactly one version and runs in its own (nested) transaction, so a failing
+ * step leaves nothing half done.
+ */
+final class PetMigrations {
+
+    /** Version of the schema created by {@link #createBaseSchema}. */
+    static final int BASE_VERSION = PetSchema.BASE_VERSION;
+
+    static {
+        if (PetSchema.VERSION != PetDbHelper.DATABASE_VERSION) {
+            throw new IllegalStateException("Migrations end at version " + PetSchema.VERSION
+                    + " but the database version is " + PetDbHelper.DATABASE_VERSION);
+        }
+    }
+
+    private PetMigrations() {
+    }
+
+    /** Creates the original version 1 schema; newer versions are reached by migrating it. */
+    static void createBaseSchema(SQLiteDatabase db) {
+        for (String sql : PetSchema.statements(BASE_VERSION)) {
+            db.execSQL(sql);
+        }
+    }
+
+    /** Runs every step after {@code oldVersion} up to and including {@code newVersion}. */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = Math.max(oldVersion, BASE_VERSION) + 1; version <= newVersion;
+                version++) {
+            db.beginTransaction();
+            try {
+                for (String sql : PetSchema.statements(version)) {
+                    db.execSQL(sql);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Pet photos, kept as JPEG files next to the database rather than in it, so rows stay small
+ * and an image is streamed from disk only when it is shown. The pets table holds the file name
+ * in {@link PetEntry#COLUMN_PET_PHOTO}. Every photo has a thumbnail in the cache directory,
+ * made in the background after the photo is stored and again on demand if the system has
+ * cleared it. Files that no row points at any more are removed by {@link #sweep}.
+ */
+final class PetPhotos {
+
+    private static final String LOG_TAG = PetPhotos.class.getSimpleName();
+
+    /** Longer side of a stored photo, in pixels. */
+    static final int PHOTO_SIZE = 1600;
+
+    /** Longer side of a thumbnail, in pixels; enough for a list row at any density. */
+    static final int THUMBNAIL_SIZE = 256;
+
+    private static final int PHOTO_QUALITY = 90;
+
+    private static final int THUMBNAIL_QUALITY = 80;
+
+    /**
+     * Files younger than this are never swept, so a photo written just before its row is
+     * updated survives a sweep that runs in between.
+     */
+    private static final long SWEEP_GRACE_MILLIS = 60 * 60 * 1000;
+
+    private static final String SQL_PHOTOS = "SELECT " + PetEntry.COLUMN_PET_PHOTO + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL";
+
+    private final File mPhotoDir;
+    private final File mThumbnailDir;
+    private final Handler mHandler;
+
+    PetPhotos(Context context) {
+        mPhotoDir = new File(context.getFilesDir(), "pet_photos");
+        mThumbnailDir = new File(context.getCacheDir(), "pet_thumbnails");
+        HandlerThread thread = new HandlerThread("PetPhotos", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Decodes the image in {@code in}, scales it down to {@link #PHOTO_SIZE} and stores it as
+     * a new photo of pet {@code id}. Returns the file name to put in the pet's row.
+     */
+    String importPhoto(long id, InputStream in) throws IOException {
+        mkdirs(mPhotoDir);
+        // The source may be a pipe, so it is copied once and then decoded from the copy.
+        File source = File.createTempFile("import", ".tmp", mPhotoDir);
+        try {
+            FileOutputStream out = new FileOutputStream(source);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+            String name = id + "-" + System.currentTimeMillis() + ".jpg";
+            writeScaled(source, new File(mPhotoDir, name), PHOTO_SIZE, PHOTO_QUALITY);
+            return name;
+        } finally {
+            source.delete();
+        }
+    }
+
+    File photoFile(String name) {
+        return new File(mPhotoDir, name);
+    }
+
+    /** Returns the thumbnail of photo {@code name}, making it first if it does not exist. */
+    File thumbnailFile(String name) throws FileNotFoundException {
+        File thumbnail = new File(mThumbnailDir, name);
+        if (!thumbnail.exists()) {
+            try {
+                mkdirs(mThumbnailDir);
+                writeScaled(photoFile(name), thumbnail, THUMBNAIL_SIZE, THUMBNAIL_QUALITY);
+            } catch (IOException e) {
+                FileNotFoundException missing = new FileNotFoundException(
+                        "Could not make thumbnail of " + name);
+                missing.initCause(e);
+                throw missing;
+            }
+        }
+        return thumbnail;
+    }
+
+    /** Makes the thumbnail of photo {@code name} on the background thread. */
+    void makeThumbnail(final String name) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    thumbnailFile(name);
+                } catch (FileNotFoundException e) {
+                    // The photo was replaced or removed in the meantime.
+                    Log.w(LOG_TAG, "No thumbnail for " + name, e);
+                }
+            }
+        });
+    }
+
+    void delete(String name) {
+        new File(mPhotoDir, name).delete();
+        new File(mThumbnailDir, name).delete();
+    }
+
+    /**
+     * Deletes the photos and thumbnails that no pet row points at, such as those of purged
+     * pets or of a replaced photo whose delete was interrupted. Returns the number of files
+     * deleted.
+     */
+    int sweep(SQLiteDatabase db) {
+        File[] photos = mPhotoDir.listFiles();
+        File[] thumbnails = mThumbnailDir.listFiles();
+        if ((photos == null || photos.length == 0)
+                && (thumbnails == null || thumbnails.length == 0)) {
+            return 0;
+        }
+
+        Set<String> used = new HashSet<>();
+        Cursor cursor = db.rawQuery(SQL_PHOTOS, null);
+        try {
+            while (cursor.moveToNext()) {
+                used.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long cutoff = System.currentTimeMillis() - SWEEP_GRACE_MILLIS;
+        return sweep(photos, used, cutoff) + sweep(thumbnails, used, cutoff);
+    }
+
+    private static int sweep(File[] files, Set<String> used, long cutoff) {
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            if (!used.contains(file.getName()) && file.lastModified() < cutoff && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes {@code source} to {@code target} as an upright JPEG whose longer side is at most
+     * {@code size}. The image is subsampled while it is decoded, so no more than about four
+     * times the output is ever held in memory, and the target only appears once complete.
+     */
+    private static void writeScaled(File source, File target, int size, int quality)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + source);
+        }
+
+        int longer = Math.max(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (longer / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            throw new IOException("Could not decode " + source);
+        }
+
+        // The output carries no EXIF data, so the source's orientation is applied to the pixels.
+        Matrix matrix = orientation(source);
+        longer = Math.max(decoded.getWidth(), decoded.getHeight());
+        if (longer > size) {
+            matrix.postScale((float) size / longer, (float) size / longer);
+        }
+        Bitmap scaled = decoded;
+        if (!matrix.isIdentity()) {
+            scaled = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(),
+                    matrix, true);
+            if (scaled != decoded) {
+                decoded.recycle();
+            }
+        }
+
+        // Two threads may make the same thumbnail at once; each writes its own file.
+        File partial = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            FileOutputStream out = new FileOutputStream(partial);
+            try {
+                scaled.compress(Bitmap.CompressFormat.JPEG, quality, out);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            scaled.recycle();
+        }
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            throw new IOException("Could not write " + target);
+        }
+    }
+
+    /** Returns the transform that turns the pixels of {@code source} upright. */
+    private static Matrix orientation(File source) {
+        Matrix matrix = new Matrix();
+        int orientation;
+        try {
+            orientation = new ExifInterface(source.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // Unreadable metadata leaves the image as it was decoded.
+            Log.w(LOG_TAG, "No orientation in " + source, e);
+            return matrix;
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+    }
+}
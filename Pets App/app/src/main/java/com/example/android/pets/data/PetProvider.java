@@ -1,15 +1,40 @@
 package com.example.android.pets.data;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
-import static android.R.attr.id;
+
+import com.example.android.pets.BuildConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.example.android.pets.data.PetsContract.PetChangeEntry;
 import static com.example.android.pets.data.PetsContract.PetEntry;
 
 /**
@@ -26,25 +51,120 @@ public class PetProvider extends ContentProvider {
 
     private static final int PETS_ID = 101;
 
+    private static final int PETS_SEARCH = 102;
+
+    private static final int PETS_STATS = 103;
+
+    private static final int PETS_CHANGES = 104;
+
+    private static final int PETS_PHOTO = 105;
+
+    private static final int PETS_THUMBNAIL = 106;
+
+    private static final int PETS_CHANGES_LATEST = 107;
+
+    /** Changes returned when the changes URI does not carry its own limit. */
+    private static final int CHANGES_LIMIT = 1000;
+
+    /** Upper bound on search results when the search URI does not carry its own limit. */
+    private static final int SEARCH_LIMIT = 200;
+
     public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/pets";
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    private static final String SQL_INSERT_PET = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, " + PetDbHelper.SQL_BREED_ID + ", ?, ?)";
+
+    private static final String SQL_RESTORE_PET = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, "
+            + PetDbHelper.SQL_BREED_ID + ", ?, ?)";
+
+    /** How long change notifications are held back so bursts of writes coalesce. */
+    private static final long NOTIFY_WINDOW_MILLIS = 50;
+
+    private PetChangeNotifier mNotifier;
+
+    /** How long after the last delete the deleted rows are purged. */
+    private static final long COMPACT_DELAY_MILLIS = 2000;
+
+    private PetCompactor mCompactor;
+
+    private PetPhotos mPhotos;
+
+    private PetDao mDao;
+
+    private PetMaintenance mMaintenance;
+
+    private final PetStatementCache mStatements = new PetStatementCache();
+
+    /** Recently read pets, so reopening one in the editor does not touch SQLite. */
+    private final PetCache mCache = new PetCache(256);
+
     static {
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,PetsContract.PATH_PETS,PETS);
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,PetsContract.PATH_PETS+"/#",PETS_ID);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_SEARCH + "/*", PETS_SEARCH);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS, PETS_STATS);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_CHANGES, PETS_CHANGES);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_PHOTO, PETS_PHOTO);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_THUMBNAIL, PETS_THUMBNAIL);
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/"
+                + PetsContract.PATH_CHANGES + "/" + PetsContract.PATH_LATEST, PETS_CHANGES_LATEST);
     }
 
 
     @Override
     public boolean onCreate() {
         mDbHelper = new PetDbHelper(getContext());
+        PetProviderStats.setEnabled(BuildConfig.DEBUG);
+        mNotifier = new PetChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MILLIS);
+        mPhotos = new PetPhotos(getContext());
+        mCompactor = new PetCompactor(mDbHelper, mPhotos, COMPACT_DELAY_MILLIS);
+        mDao = new PetDao(mDbHelper);
+        mMaintenance = new PetMaintenance(mDbHelper, mPhotos, getContext().getSharedPreferences(
+                PetMaintenance.PREFS_NAME, Context.MODE_PRIVATE));
+        // Picks up pets deleted, and photos left behind, before the process last died.
+        mCompactor.schedule();
         return true;
     }
 
+    @Override
+    public void shutdown() {
+        mStatements.clear();
+        mDbHelper.close();
+    }
+
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        if (!PetProviderStats.isEnabled()) {
+            return queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+        // Run the query now so its cost is counted here rather than at the first read.
+        int rows = cursor.getCount();
+        String sql = cursor instanceof InstrumentedCursor
+                ? ((InstrumentedCursor) cursor).getSql() : null;
+        PetProviderStats.record(PetProviderStats.OP_QUERY, uriType(uri), start, rows,
+                sql == null ? "(pet cache lookup)" : sql, sql, mDbHelper.getReadableDatabase());
+        return cursor;
+    }
+
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -54,16 +174,37 @@ public class PetProvider extends ContentProvider {
 
             switch (match) {
                 case PETS:
-                    cursor = database.query(PetEntry.TABLE_NAME,projection,selection,selectionArgs,null,null,sortOrder);
+                    PetQuery query = PetQuery.forList(uri, selection, selectionArgs, sortOrder);
+                    cursor = database.query(PetDbHelper.PETS_VIEW_NAME, projection, query.selection,
+                            query.selectionArgs, null, null, query.orderBy, query.limit);
 
                     break;
                 case PETS_ID:
-                    selection = PetEntry._ID + "=?";
-                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                    cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                            null, null, sortOrder);
+                    cursor = queryPetById(database, ContentUris.parseId(uri), projection);
                     break;
+                case PETS_SEARCH:
+                    cursor = querySearch(database, uri, projection, selection, selectionArgs);
+                    // An edited pet is notified on its own URI, which is not below the search
+                    // URI, so a search cursor watches the whole pets URI like a list does.
+                    cursor.setNotificationUri(getContext().getContentResolver(),
+                            PetEntry.CONTENT_URI);
+                    return cursor;
+                case PETS_STATS:
+                case PETS_CHANGES:
+                case PETS_CHANGES_LATEST:
+                    if (match == PETS_STATS) {
+                        cursor = queryStats(database, uri, projection);
+                    } else if (match == PETS_CHANGES) {
+                        cursor = queryChanges(database, uri, projection);
+                    } else {
+                        cursor = database.rawQuery(project(PetChangeFeed.SQL_LATEST, projection,
+                                Collections.singleton(PetChangeEntry.COLUMN_SEQUENCE), uri), null);
+                    }
+                    // Any pet change can alter these rows, and single-pet notifications only
+                    // reach observers of the pets URI and its descendants.
+                    cursor.setNotificationUri(getContext().getContentResolver(),
+                            PetEntry.CONTENT_URI);
+                    return cursor;
                 default:
                     throw new IllegalArgumentException("Cannot query unknown URI " + uri);
             }
@@ -74,23 +215,288 @@ public class PetProvider extends ContentProvider {
     }
 
 
+    /**
+     * Serves a single pet from {@link #mCache}, reading it from SQLite only on a miss. A
+     * projection asking for more than the cached columns is queried from SQLite as it is.
+     */
+    private Cursor queryPetById(SQLiteDatabase database, long id, String[] projection) {
+        if (!PetRecord.covers(projection)) {
+            return database.query(PetDbHelper.PETS_VIEW_NAME, projection, PetEntry._ID + "=?",
+                    new String[] { String.valueOf(id) }, null, null, null);
+        }
+        PetRecord record = mCache.get(id);
+        if (record == null) {
+            long generation = mCache.generation();
+            Cursor row = database.query(PetDbHelper.PETS_VIEW_NAME, PetRecord.COLUMNS,
+                    PetEntry._ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+            try {
+                if (row.moveToFirst()) {
+                    record = PetDao.readRecord(row);
+                }
+            } finally {
+                row.close();
+            }
+            if (record != null) {
+                mCache.put(record, generation);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection == null ? PetRecord.COLUMNS : projection, 1);
+        if (record != null) {
+            cursor.addRow(record.toRow(projection));
+        }
+        return cursor;
+    }
+
+    /**
+     * Prefix search over name and breed through the FTS index. The pets table is only touched
+     * for the matching ids, and pets whose name starts with the search text are ranked first.
+     */
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs) {
+        String text = uri.getLastPathSegment();
+        String match = buildMatchExpression(text);
+        if (match == null) {
+            return database.query(PetDbHelper.PETS_VIEW_NAME, projection, "0", null, null, null,
+                    null);
+        }
+
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = String.valueOf(SEARCH_LIMIT);
+        }
+
+        PetQuery query = PetQuery.forFilter(uri, selection, selectionArgs);
+        selection = DatabaseUtils.concatenateWhere(query.selection, PetEntry._ID
+                + " IN (SELECT docid FROM " + PetDbHelper.FTS_TABLE_NAME + " WHERE "
+                + PetDbHelper.FTS_TABLE_NAME + " MATCH ?)");
+        // The ORDER BY placeholder follows those of the WHERE clause, so its argument goes last.
+        String prefix = text.trim().replace("\\", "\\\\").replace("%", "\\%")
+                .replace("_", "\\_") + "%";
+        selectionArgs = DatabaseUtils.appendSelectionArgs(query.selectionArgs,
+                new String[] { match, prefix });
+
+        String orderBy = "CASE WHEN " + PetEntry.COLUMN_PET_NAME + " LIKE ? ESCAPE '\\' "
+                + "THEN 0 ELSE 1 END, " + PetEntry.COLUMN_PET_NAME;
+
+        return database.query(PetDbHelper.PETS_VIEW_NAME, projection, selection, selectionArgs,
+                null, null, orderBy, limit);
+    }
+
+    /**
+     * Counts and weighs the pets per group named by the group_by parameter. The numbers are
+     * summed from the pet_stats summary table, which holds one row per gender and breed and is
+     * kept current by triggers, so the cost grows with the number of groups rather than pets.
+     * With {@code live=true} the same rows are computed by grouping the pets that are not
+     * deleted instead.
+     */
+    private static Cursor queryStats(SQLiteDatabase database, Uri uri, String[] projection) {
+        String breedKey = PetDbHelper.COLUMN_STATS_BREED_KEY;
+        String count = PetDbHelper.COLUMN_STATS_PET_COUNT;
+        String totalWeight = PetEntry.COLUMN_STATS_TOTAL_WEIGHT;
+
+        Set<String> columns = new HashSet<>();
+        StringBuilder select = new StringBuilder("SELECT ");
+        StringBuilder groupBy = new StringBuilder();
+        // Built, like the GROUP BY, from the validated names only and never from the parameter.
+        StringBuilder orderBy = new StringBuilder();
+        String groups = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GROUP_BY);
+        if (groups != null) {
+            for (String group : groups.split(",")) {
+                group = group.trim();
+                if (!columns.add(group)) {
+                    throw new IllegalArgumentException("Cannot group twice by " + group + " in "
+                            + uri);
+                }
+                if (PetEntry.COLUMN_PET_GENDER.equals(group)) {
+                    select.append(PetEntry.COLUMN_PET_GENDER);
+                    groupBy.append(groupBy.length() == 0 ? " GROUP BY " : ", ")
+                            .append(PetEntry.COLUMN_PET_GENDER);
+                    orderBy.append(orderBy.length() == 0 ? " ORDER BY " : ", ")
+                            .append(PetEntry.COLUMN_PET_GENDER);
+                } else if (PetEntry.COLUMN_PET_BREED.equals(group)) {
+                    select.append("(SELECT name FROM ").append(PetDbHelper.BREEDS_TABLE_NAME)
+                            .append(" WHERE _id = ").append(breedKey).append(") AS ")
+                            .append(PetEntry.COLUMN_PET_BREED);
+                    groupBy.append(groupBy.length() == 0 ? " GROUP BY " : ", ")
+                            .append(breedKey);
+                    orderBy.append(orderBy.length() == 0 ? " ORDER BY " : ", ")
+                            .append(PetEntry.COLUMN_PET_BREED);
+                } else {
+                    throw new IllegalArgumentException("Cannot group by " + group + " in " + uri);
+                }
+                select.append(", ");
+            }
+        }
+        columns.add(PetEntry.COLUMN_STATS_COUNT);
+        columns.add(PetEntry.COLUMN_STATS_TOTAL_WEIGHT);
+        columns.add(PetEntry.COLUMN_STATS_AVERAGE_WEIGHT);
+
+        String source = PetDbHelper.STATS_TABLE_NAME;
+        if (Boolean.parseBoolean(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIVE))) {
+            source = "(SELECT " + PetEntry.COLUMN_PET_GENDER + ", IFNULL("
+                    + PetDbHelper.COLUMN_BREED_ID + ", 0) AS " + breedKey + ", COUNT(*) AS "
+                    + count + ", SUM(" + PetEntry.COLUMN_PET_WEIGHT + ") AS " + totalWeight
+                    + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SQL_VISIBLE
+                    + " GROUP BY " + PetEntry.COLUMN_PET_GENDER
+                    + ", " + breedKey + ")";
+        }
+        select.append("IFNULL(SUM(").append(count).append("), 0) AS ")
+                .append(PetEntry.COLUMN_STATS_COUNT)
+                .append(", IFNULL(SUM(").append(totalWeight).append("), 0) AS ")
+                .append(PetEntry.COLUMN_STATS_TOTAL_WEIGHT)
+                .append(", CAST(SUM(").append(totalWeight).append(") AS REAL) / SUM(")
+                .append(count).append(") AS ").append(PetEntry.COLUMN_STATS_AVERAGE_WEIGHT)
+                .append(" FROM ").append(source)
+                .append(groupBy)
+                .append(orderBy);
+
+        return database.rawQuery(project(select.toString(), projection, columns, uri), null);
+    }
+
+    /**
+     * Serves the change log after the since parameter in sequence order, each insert or update
+     * joined with the pet's current values. When the log has been pruned past since, or since
+     * lies beyond anything logged, an {@link PetChangeEntry#OP_RESET} row comes first, followed
+     * by every change still kept.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection) {
+        String sinceParameter = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_SINCE);
+        long since = sinceParameter == null ? 0 : PetQuery.parseLong(uri, sinceParameter);
+        String limitParameter = uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_LIMIT);
+        long limit = limitParameter == null
+                ? CHANGES_LIMIT : PetQuery.parseLong(uri, limitParameter);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Change limit must be positive in " + uri);
+        }
+
+        long oldest = DatabaseUtils.longForQuery(database, PetChangeFeed.SQL_OLDEST, null);
+        long latest = DatabaseUtils.longForQuery(database, PetChangeFeed.SQL_LATEST, null);
+        String sql = PetChangeFeed.query(since, limit, oldest, latest);
+
+        Set<String> columns = new HashSet<>();
+        Collections.addAll(columns, PetChangeEntry.COLUMN_SEQUENCE, PetChangeEntry.COLUMN_OP,
+                PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO);
+        return database.rawQuery(project(sql, projection, columns, uri), null);
+    }
+
+    /**
+     * Narrows the rows of {@code sql} to {@code projection}, each of which must be one of
+     * {@code columns}; a null projection keeps every column.
+     */
+    private static String project(String sql, String[] projection, Set<String> columns, Uri uri) {
+        if (projection == null) {
+            return sql;
+        }
+        for (String column : projection) {
+            if (!columns.contains(column)) {
+                throw new IllegalArgumentException("Unknown column " + column + " in " + uri);
+            }
+        }
+        return "SELECT " + TextUtils.join(", ", projection) + " FROM (" + sql + ")";
+    }
+
+    /**
+     * Turns free text into an FTS MATCH expression in which every word is a prefix query, e.g.
+     * {@code gol or} becomes {@code "gol*" "or*"}. Each word is quoted so that words such as OR,
+     * NOT or NEAR are searched for rather than read as operators. Returns null when there is
+     * nothing to match.
+     */
+    private static String buildMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            // FTS4 takes the prefix star inside the quotes.
+            match.append('"').append(word).append("*\"");
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+
     @Nullable
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+            case PETS_SEARCH:
                 return PetEntry.CONTENT_LIST_TYPE;
+            case PETS_STATS:
+                return PetEntry.CONTENT_STATS_TYPE;
+            case PETS_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
+            case PETS_CHANGES_LATEST:
+                return PetChangeEntry.CONTENT_LATEST_TYPE;
             case PETS_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PETS_PHOTO:
+            case PETS_THUMBNAIL:
+                return PetEntry.PHOTO_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Opens the photo or thumbnail of a pet for reading. The file is looked up through the
+     * pet's row each time, so a replaced photo is never served under the old pet URI. A
+     * thumbnail the system has cleared from the cache is made again first.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match != PETS_PHOTO && match != PETS_THUMBNAIL) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Pet photos are read-only: " + uri);
+        }
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        String name = photoName(mDbHelper.getReadableDatabase(), id);
+        if (name == null) {
+            throw new FileNotFoundException("No photo for " + uri);
+        }
+        File file = match == PETS_PHOTO ? mPhotos.photoFile(name) : mPhotos.thumbnailFile(name);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /** The photo file name of the pet with the given id, or null if it has none or is gone. */
+    private static String photoName(SQLiteDatabase database, long id) {
+        Cursor cursor = database.query(PetDbHelper.PETS_VIEW_NAME,
+                new String[] { PetEntry.COLUMN_PET_PHOTO }, PetEntry._ID + "=?",
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        if (!PetProviderStats.isEnabled()) {
+            return insertUri(uri, values);
+        }
+        long start = System.nanoTime();
+        Uri newUri = insertUri(uri, values);
+        PetProviderStats.record(PetProviderStats.OP_INSERT, uriType(uri), start, newUri == null ? 0 : 1,
+                "INSERT INTO " + PetEntry.TABLE_NAME, null, null);
+        return newUri;
+    }
+
+    private Uri insertUri(Uri uri, ContentValues values) {
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
@@ -105,6 +511,18 @@ public class PetProvider extends ContentProvider {
 
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        if (!PetProviderStats.isEnabled()) {
+            return deleteUri(uri, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int rows = deleteUri(uri, selection, selectionArgs);
+        String where = whereFor(uri, selection);
+        PetProviderStats.record(PetProviderStats.OP_DELETE, uriType(uri), start, rows,
+                "DELETE FROM " + PetEntry.TABLE_NAME + where, planFor(where), mDbHelper.getReadableDatabase());
+        return rows;
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
 
         int rowsDeleted;
 
@@ -113,18 +531,23 @@ public class PetProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = selection == null
+                        ? deleteAllPets(database)
+                        : mStatements.delete(database, selection, selectionArgs);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri,null);
+                    mCache.invalidateAll();
+                    notifyChange(uri);
+                    mCompactor.schedule();
                 }
                 return rowsDeleted;
             case PETS_ID:
                 // Delete a single row given by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                rowsDeleted = mStatements.deleteById(database, id);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri,null);
+                    mCache.invalidate(id);
+                    notifyChange(uri);
+                    mCompactor.schedule();
                 }
                 return rowsDeleted;
             default:
@@ -133,8 +556,51 @@ public class PetProvider extends ContentProvider {
     }
 
 
+    /**
+     * Deletes every pet by moving the deleted_through watermark up to the highest id, which costs
+     * the same at any table size. The count comes from the stats summary, emptied along with it;
+     * {@link PetCompactor} purges the rows afterwards.
+     */
+    private static int deleteAllPets(SQLiteDatabase database) {
+        database.beginTransactionNonExclusive();
+        try {
+            int rows = (int) DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM("
+                    + PetDbHelper.COLUMN_STATS_PET_COUNT + "), 0) FROM "
+                    + PetDbHelper.STATS_TABLE_NAME, null);
+            database.execSQL("UPDATE " + PetDbHelper.META_TABLE_NAME + " SET "
+                    + PetDbHelper.COLUMN_DELETED_THROUGH + " = MAX("
+                    + PetDbHelper.COLUMN_DELETED_THROUGH + ", (SELECT IFNULL(MAX("
+                    + PetEntry._ID + "), 0) FROM " + PetEntry.TABLE_NAME + "))");
+            database.delete(PetDbHelper.STATS_TABLE_NAME, null, null);
+            database.setTransactionSuccessful();
+            return rows;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        if (!PetProviderStats.isEnabled()) {
+            return updateUri(uri, values, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int rows = updateUri(uri, values, selection, selectionArgs);
+        String sql;
+        if (values.size() == 0) {
+            sql = "(no values to update)";
+        } else if (sUriMatcher.match(uri) == PETS_ID) {
+            sql = PetStatementCache.updateByIdSql(values);
+        } else {
+            sql = PetStatementCache.updateSql(values, selection);
+        }
+        PetProviderStats.record(PetProviderStats.OP_UPDATE, uriType(uri), start, rows, sql,
+                planFor(whereFor(uri, selection)), mDbHelper.getReadableDatabase());
+        return rows;
+    }
+
+    private int updateUri(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
@@ -142,12 +608,7 @@ public class PetProvider extends ContentProvider {
                 return updatePet(uri,values,selection,selectionArgs);
 
             case PETS_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                getContext().getContentResolver().notifyChange(uri,null);
-
-                return updatePet(uri, values, selection, selectionArgs);
+                return updatePetById(uri, values, ContentUris.parseId(uri));
 
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
@@ -157,75 +618,499 @@ public class PetProvider extends ContentProvider {
 
         private Uri insertPet(Uri uri, ContentValues values) {
 
-            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
+            validateInsert(values);
+
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            long newRowId;
+            try {
+                newRowId = mStatements.insert(database, values);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                return null;
             }
 
-            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            Uri newUri = ContentUris.withAppendedId(uri, newRowId);
+            notifyChange(newUri);
 
-            if(gender == null || !PetEntry.isValidGender(gender))
-            {
-                throw new IllegalArgumentException("Pet requires valid gender");
+            return newUri;
+        }
+
+
+        private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+        {
+            validateUpdate(values);
+
+            if (values.size() == 0) {
+                return 0;
             }
-            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if(weight != null && weight<0)
-            {
-                throw new IllegalArgumentException("Pet requires valid weight");
+
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            int rowsUpdated = mStatements.update(database, values, selection, selectionArgs);
+
+            if (rowsUpdated != 0) {
+                mCache.invalidateAll();
+                notifyChange(uri);
+            }
+
+            return rowsUpdated;
+        }
+
+
+        private int updatePetById(Uri uri, ContentValues values, long id)
+        {
+            validateUpdate(values);
+
+            if (values.size() == 0) {
+                return 0;
             }
 
             SQLiteDatabase database = mDbHelper.getWritableDatabase();
-            long newRowId = database.insert(PetEntry.TABLE_NAME,null,values);
 
-            if (newRowId == -1) {
-                Log.e(LOG_TAG, "Failed to insert row for " + uri);
-                return null;
+            int rowsUpdated = mStatements.updateById(database, id, values);
+
+            if (rowsUpdated != 0) {
+                mCache.invalidate(id);
+                notifyChange(uri);
             }
 
-            getContext().getContentResolver().notifyChange(uri,null);
+            return rowsUpdated;
+        }
 
 
-            return ContentUris.withAppendedId(uri, id);
+    /**
+     * Inserts all rows for {@link PetEntry#CONTENT_URI} in a single transaction. Every row is
+     * validated before anything is written, so one bad row rejects the whole batch.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (!PetProviderStats.isEnabled()) {
+            return bulkInsertUri(uri, values);
         }
+        long start = System.nanoTime();
+        int rows = bulkInsertUri(uri, values);
+        PetProviderStats.record(PetProviderStats.OP_BULK_INSERT, uriType(uri), start, rows,
+                SQL_INSERT_PET, null, null);
+        return rows;
+    }
 
+    private int bulkInsertUri(Uri uri, ContentValues[] values) {
 
-        private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs)
-        {
-            if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
-                String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-                if (name == null) {
-                    throw new IllegalArgumentException("Pet requires a name");
-                }
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+        }
+
+        for (ContentValues row : values) {
+            validateInsert(row);
+        }
+
+        if (values.length == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_PET);
+        SQLiteStatement addBreed = database.compileStatement(PetDbHelper.SQL_ADD_BREED);
+        Set<String> breeds = new HashSet<>();
+        database.beginTransactionNonExclusive();
+        try {
+            for (ContentValues row : values) {
+                addBreed(addBreed, breeds, row.getAsString(PetEntry.COLUMN_PET_BREED));
+                bindPet(statement, row);
+                statement.executeInsert();
             }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+            addBreed.close();
+        }
 
-            if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-                Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-                if (gender == null || !PetEntry.isValidGender(gender)) {
-                    throw new IllegalArgumentException("Pet requires valid gender");
-                }
+        notifyChange(uri);
+
+        return values.length;
+    }
+
+    /**
+     * Applies the operations in one transaction; the notifications they raise are coalesced and
+     * sent once the transaction has committed, or dropped if it rolls back. Each operation still
+     * goes through the normal insert/update/delete validation, and a failure rolls back the
+     * whole batch.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mNotifier.beginBatch();
+        database.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            // Rows may have been cached from before the commit while the batch ran.
+            mCache.invalidateAll();
+            mNotifier.endBatch(committed);
+        }
+
+        return results;
+    }
+
+    /**
+     * Answers {@link PetsContract#METHOD_DUMP_STATS} with the instrumentation snapshot and the
+     * single-pet cache counters under {@link PetsContract#EXTRA_STATS}, and writes or restores
+     * snapshots for {@link PetsContract#METHOD_WRITE_SNAPSHOT} and
+     * {@link PetsContract#METHOD_RESTORE_SNAPSHOT}. {@link PetsContract#METHOD_SET_PHOTO}
+     * stores or removes a pet's photo, and {@link PetsContract#METHOD_RUN_MAINTENANCE} runs the
+     * database upkeep.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (PetsContract.METHOD_DUMP_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(PetsContract.EXTRA_STATS, PetProviderStats.snapshot()
+                    + "Pet cache: hits=" + mCache.hitCount() + " misses=" + mCache.missCount() + "\n"
+                    + mMaintenance.report());
+            return result;
+        }
+        if (PetsContract.METHOD_WRITE_SNAPSHOT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(PetsContract.EXTRA_ROWS, writeSnapshot(snapshotFile(arg)));
+            return result;
+        }
+        if (PetsContract.METHOD_RESTORE_SNAPSHOT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(PetsContract.EXTRA_ROWS, restoreSnapshot(snapshotFile(arg)));
+            return result;
+        }
+        if (PetsContract.METHOD_SET_PHOTO.equals(method)) {
+            ParcelFileDescriptor photo = extras == null
+                    ? null : (ParcelFileDescriptor) extras.getParcelable(PetsContract.EXTRA_PHOTO);
+            Bundle result = new Bundle();
+            result.putLong(PetsContract.EXTRA_ROWS, setPhoto(Uri.parse(arg), photo));
+            return result;
+        }
+        if (PetsContract.METHOD_RUN_MAINTENANCE.equals(method)) {
+            long budget = arg == null ? 0 : Long.parseLong(arg);
+            Bundle result = new Bundle();
+            result.putBoolean(PetsContract.EXTRA_FINISHED, mMaintenance.run(budget));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Stores {@code photo} as the photo of the pet at {@code uri}, or removes the pet's photo if
+     * it is null, and returns the number of pets changed. The image is decoded and written
+     * before the row is touched, so no transaction is held open while that runs; the previous
+     * file goes once the row no longer points at it.
+     */
+    private int setPhoto(Uri uri, ParcelFileDescriptor photo) {
+        if (sUriMatcher.match(uri) != PETS_ID) {
+            throw new IllegalArgumentException("Cannot set the photo of " + uri);
+        }
+        long id = ContentUris.parseId(uri);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String previous = photoName(database, id);
+
+        String name = null;
+        if (photo != null) {
+            try {
+                // Not closed: that would close the caller's descriptor.
+                name = mPhotos.importPhoto(id, new FileInputStream(photo.getFileDescriptor()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read the photo for " + uri, e);
             }
+        }
 
-            if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-                // Check that the weight is greater than or equal to 0 kg
-                Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-                if (weight != null && weight < 0) {
-                    throw new IllegalArgumentException("Pet requires valid weight");
+        ContentValues values = new ContentValues(1);
+        values.put(PetEntry.COLUMN_PET_PHOTO, name);
+        int rows = mStatements.updateById(database, id, values);
+        if (rows == 0) {
+            if (name != null) {
+                mPhotos.delete(name);
+            }
+            return 0;
+        }
+        if (previous != null) {
+            mPhotos.delete(previous);
+        }
+        if (name != null) {
+            mPhotos.makeThumbnail(name);
+        }
+        mCache.invalidate(id);
+        notifyChange(uri);
+        return rows;
+    }
+
+    /**
+     * Returns the snapshot file at {@code path}, which must lie in the app's files or cache
+     * directory so callers cannot have the provider read or overwrite anything else it can reach.
+     */
+    private File snapshotFile(String path) {
+        if (path == null || !new File(path).isAbsolute()) {
+            throw new IllegalArgumentException("Snapshot path must be absolute: " + path);
+        }
+        try {
+            String file = new File(path).getCanonicalPath();
+            for (File dir : new File[] { getContext().getFilesDir(), getContext().getCacheDir() }) {
+                if (file.startsWith(dir.getCanonicalPath() + File.separator)) {
+                    return new File(file);
                 }
             }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not resolve snapshot path " + path, e);
+        }
+        throw new IllegalArgumentException(
+                "Snapshot must be in the app's files or cache directory: " + path);
+    }
 
-            if (values.size() == 0) {
-                return 0;
+    /**
+     * Streams every pet into {@code file} in id order, one {@link PetBatch} of a snapshot block
+     * at a time. The batches are read in one transaction on a read-only connection of their
+     * own, which under WAL is a consistent snapshot that writers neither wait for nor disturb.
+     * The file is synced after that transaction has ended.
+     */
+    private long writeSnapshot(File file) {
+        SQLiteDatabase reader = mDbHelper.openReader();
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            PetSnapshotFormat.Writer writer = new PetSnapshotFormat.Writer(out.getChannel());
+            PetBatch batch = new PetBatch(PetSnapshotFormat.BLOCK_ROWS);
+            long rows;
+            // SQLite starts no write transaction on a read-only connection, only a read.
+            reader.beginTransactionNonExclusive();
+            try {
+                long afterId = 0;
+                int count;
+                do {
+                    count = mDao.readAfter(reader, afterId, batch);
+                    long[] ids = batch.ids();
+                    int[] weights = batch.weights();
+                    byte[] genders = batch.genders();
+                    int[] breeds = batch.breedCodes();
+                    char[] names = batch.nameChars();
+                    for (int i = 0; i < count; i++) {
+                        writer.add(ids[i], names, batch.nameStart(i), batch.nameLength(i),
+                                batch.breedName(breeds[i]), genders[i], weights[i]);
+                    }
+                    if (count > 0) {
+                        afterId = ids[count - 1];
+                    }
+                } while (count == batch.capacity());
+                rows = writer.finish();
+                reader.setTransactionSuccessful();
+            } finally {
+                reader.endTransaction();
             }
+            out.getFD().sync();
+            return rows;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write pet snapshot to " + file, e);
+        } finally {
+            reader.close();
+            closeQuietly(out);
+        }
+    }
 
-            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Replaces the table with the pets in {@code file}, keeping their ids, in a single
+     * transaction through one compiled statement. The snapshot is checked block by block as it
+     * is read; any problem rolls the whole restore back.
+     */
+    private long restoreSnapshot(File file) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        FileInputStream in = null;
+        long rows = 0;
+        SQLiteStatement statement = database.compileStatement(SQL_RESTORE_PET);
+        SQLiteStatement addBreed = database.compileStatement(PetDbHelper.SQL_ADD_BREED);
+        Set<String> breeds = new HashSet<>();
+        database.beginTransactionNonExclusive();
+        try {
+            in = new FileInputStream(file);
+            PetSnapshotFormat.Reader reader = new PetSnapshotFormat.Reader(in.getChannel());
+            // Deleting through the watermark first logs one change instead of one per pet and
+            // leaves the rows hidden, so removing them skips the stats triggers. The restored
+            // ids may then lie below the watermark, so it is reset.
+            deleteAllPets(database);
+            database.delete(PetEntry.TABLE_NAME, null, null);
+            database.execSQL("UPDATE " + PetDbHelper.META_TABLE_NAME + " SET "
+                    + PetDbHelper.COLUMN_DELETED_THROUGH + " = 0");
+            while (reader.next()) {
+                if (!PetEntry.isValidGender(reader.gender()) || reader.weight() < 0) {
+                    throw new IllegalArgumentException("Invalid pet " + reader.id()
+                            + " in snapshot " + file);
+                }
+                String breed = reader.breed();
+                addBreed(addBreed, breeds, breed);
+                statement.clearBindings();
+                statement.bindLong(1, reader.id());
+                statement.bindString(2, reader.name());
+                if (breed == null) {
+                    statement.bindNull(3);
+                } else {
+                    statement.bindString(3, breed);
+                }
+                statement.bindLong(4, reader.gender());
+                statement.bindLong(5, reader.weight());
+                statement.executeInsert();
+                rows++;
+            }
+            database.setTransactionSuccessful();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not restore pet snapshot from " + file, e);
+        } finally {
+            database.endTransaction();
+            statement.close();
+            addBreed.close();
+            closeQuietly(in);
+        }
 
-            int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        mCache.invalidateAll();
+        notifyChange(PetEntry.CONTENT_URI);
+        // Snapshots carry no photos, so those of the replaced pets are swept.
+        mCompactor.schedule();
+        return rows;
+    }
 
-            if (rowsUpdated != 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Adds {@code breed} to the breeds table unless it is empty or already in {@code added}, the
+     * breeds handled so far by the current transaction.
+     */
+    private static void addBreed(SQLiteStatement addBreed, Set<String> added, String breed) {
+        if (breed == null || breed.isEmpty() || !added.add(breed)) {
+            return;
+        }
+        addBreed.bindString(1, breed);
+        addBreed.execute();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close " + closeable, e);
+        }
+    }
+
+    /** Name of the URI pattern {@code uri} matches, for grouping stats. */
+    private static String uriType(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case PETS:
+                return uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) == null ? "pets" : "pets?page";
+            case PETS_ID:
+                return "pets/#";
+            case PETS_SEARCH:
+                return "pets/search/*";
+            case PETS_STATS:
+                return "pets/stats";
+            case PETS_CHANGES:
+                return "pets/changes";
+            case PETS_CHANGES_LATEST:
+                return "pets/changes/latest";
+            case PETS_PHOTO:
+                return "pets/#/photo";
+            case PETS_THUMBNAIL:
+                return "pets/#/thumbnail";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static String whereFor(Uri uri, String selection) {
+        if (sUriMatcher.match(uri) == PETS_ID) {
+            return " WHERE " + PetEntry._ID + "=?";
+        }
+        return selection == null ? "" : " WHERE " + selection;
+    }
+
+    /** A SELECT that finds the same rows as a write with the given WHERE clause. */
+    private static String planFor(String where) {
+        return "SELECT " + PetEntry._ID + " FROM " + PetDbHelper.PETS_VIEW_NAME + where;
+    }
+
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
+    }
+
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_PET_NAME));
+
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+
+        statement.bindLong(3, values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        statement.bindLong(4, weight == null ? 0 : weight);
+    }
+
+    static void validateInsert(ContentValues values) {
+        validatePhoto(values);
+
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null || !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight != null && weight < 0) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+    }
+
+    static void validateUpdate(ContentValues values) {
+        validatePhoto(values);
+
+        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Pet requires a name");
             }
+        }
 
-            return rowsUpdated;
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Pet requires valid gender");
+            }
         }
 
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            // Check that the weight is greater than or equal to 0 kg
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            if (weight != null && weight < 0) {
+                throw new IllegalArgumentException("Pet requires valid weight");
+            }
+        }
+    }
+
+    /** The photo column names a file the provider manages, so only setPhoto may write it. */
+    private static void validatePhoto(ContentValues values) {
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Pet photos are set with "
+                    + PetsContract.METHOD_SET_PHOTO);
+        }
+    }
 }
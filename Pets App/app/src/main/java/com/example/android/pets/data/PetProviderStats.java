@@ -0,0 +1,184 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Instrumentation for {@link PetProvider}: a latency histogram and row counts per operation and
+ * URI type, the number of cursor window fills, and a log of slow calls with their SQL and
+ * {@code EXPLAIN QUERY PLAN}. Everything is off by default; when off, each provider call pays a
+ * single volatile read.
+ */
+public final class PetProviderStats {
+
+    private static final String LOG_TAG = PetProviderStats.class.getSimpleName();
+
+    static final String OP_QUERY = "query";
+    static final String OP_INSERT = "insert";
+    static final String OP_BULK_INSERT = "bulkInsert";
+    static final String OP_UPDATE = "update";
+    static final String OP_DELETE = "delete";
+
+    /** Latency buckets are powers of two in microseconds; the last one is open-ended. */
+    private static final int BUCKETS = 21;
+
+    private static final int SLOW_LOG_SIZE = 32;
+
+    private static final class Histogram {
+        final long[] buckets = new long[BUCKETS];
+        long calls;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+
+        void add(long nanos, int rowCount) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+            buckets[Math.min(bucket, BUCKETS - 1)]++;
+            calls++;
+            rows += rowCount;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /** Upper bound of the bucket holding the given percentile, in microseconds. */
+        long percentileMicros(double percentile) {
+            long target = (long) Math.ceil(calls * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+
+    private static volatile boolean sEnabled;
+    private static volatile long sSlowThresholdNanos = 50 * 1000000L;
+
+    private static final Object sLock = new Object();
+    private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+    private static final ArrayDeque<String> sSlowLog = new ArrayDeque<>();
+    private static long sWindowFills;
+
+    private PetProviderStats() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /** Calls slower than this are written to the slow log with their query plan. */
+    public static void setSlowThresholdMillis(long millis) {
+        sSlowThresholdNanos = millis * 1000000L;
+    }
+
+    public static void reset() {
+        synchronized (sLock) {
+            sHistograms.clear();
+            sSlowLog.clear();
+            sWindowFills = 0;
+        }
+    }
+
+    static void windowFilled() {
+        synchronized (sLock) {
+            sWindowFills++;
+        }
+    }
+
+    /**
+     * Records one provider call that started at {@code startNanos} ({@link System#nanoTime}).
+     *
+     * @param sql     statement that ran, for the slow log; may be null
+     * @param planSql SELECT whose plan shows how the call found its rows; null to skip the plan
+     */
+    static void record(String operation, String uriType, long startNanos, int rows, String sql,
+                       String planSql, SQLiteDatabase db) {
+        long nanos = System.nanoTime() - startNanos;
+        synchronized (sLock) {
+            String key = operation + " " + uriType;
+            Histogram histogram = sHistograms.get(key);
+            if (histogram == null) {
+                histogram = new Histogram();
+                sHistograms.put(key, histogram);
+            }
+            histogram.add(nanos, rows);
+        }
+
+        if (nanos < sSlowThresholdNanos) {
+            return;
+        }
+        String entry = operation + " " + uriType + " took " + nanos / 1000000 + " ms, " + rows
+                + " rows\n  sql: " + sql + "\n  plan: " + explain(db, planSql);
+        Log.w(LOG_TAG, "Slow provider call: " + entry);
+        synchronized (sLock) {
+            if (sSlowLog.size() == SLOW_LOG_SIZE) {
+                sSlowLog.removeFirst();
+            }
+            sSlowLog.addLast(entry);
+        }
+    }
+
+    private static String explain(SQLiteDatabase db, String sql) {
+        if (sql == null) {
+            return "-";
+        }
+        StringBuilder plan = new StringBuilder();
+        try {
+            // Parameters are left unbound; the plan does not depend on their values.
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                int detail = cursor.getColumnIndex("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append("; ");
+                    }
+                    plan.append(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            return "unavailable (" + e.getMessage() + ")";
+        }
+        return plan.toString();
+    }
+
+    /** Human-readable dump of everything recorded so far, e.g. for a debug menu. */
+    public static String snapshot() {
+        StringBuilder out = new StringBuilder();
+        synchronized (sLock) {
+            out.append("Provider stats (").append(sEnabled ? "enabled" : "disabled")
+                    .append("), cursor window fills: ").append(sWindowFills).append('\n');
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                Histogram h = entry.getValue();
+                out.append(entry.getKey())
+                        .append(": calls=").append(h.calls)
+                        .append(" rows=").append(h.rows)
+                        .append(" avgUs=").append(h.totalNanos / h.calls / 1000)
+                        .append(" p50Us<=").append(h.percentileMicros(0.5))
+                        .append(" p90Us<=").append(h.percentileMicros(0.9))
+                        .append(" p99Us<=").append(h.percentileMicros(0.99))
+                        .append(" maxUs=").append(h.maxNanos / 1000)
+                        .append('\n');
+            }
+            out.append("Slow calls (").append(sSlowLog.size()).append("):\n");
+            for (String entry : sSlowLog) {
+                out.append(entry).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
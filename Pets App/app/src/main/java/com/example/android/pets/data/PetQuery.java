@@ -0,0 +1,146 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * Compiles the filter, sort and paging parameters of a pets URI into a parameterised WHERE
+ * clause, ORDER BY and LIMIT over the pets view. Only whitelisted columns reach the SQL text;
+ * every value is bound, and each filter lines up with one of the pets table indexes so a
+ * filtered load only visits the matching rows.
+ */
+final class PetQuery {
+
+    /**
+     * Columns the rows may be sorted on. All but the breed, which is looked up by id, have an
+     * index whose trailing rowid breaks ties; breed order sorts the filtered rows instead.
+     */
+    private static final String[] SORT_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+    };
+
+    String selection;
+    String[] selectionArgs;
+    String orderBy;
+    String limit;
+
+    private PetQuery(String selection, String[] selectionArgs) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+
+    /**
+     * Builds the query for a {@link PetEntry#CONTENT_URI} read. {@code sortOrder} is only used
+     * when the URI neither names a sort column nor continues from a previous page.
+     */
+    static PetQuery forList(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        PetQuery query = forFilter(uri, selection, selectionArgs);
+
+        String sort = sortColumn(uri);
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        query.limit = parseLimit(uri);
+
+        if (afterId != null) {
+            parseLong(uri, afterId);
+            query.seekAfter(sort, afterId,
+                    uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY));
+        }
+        if (afterId != null || query.limit != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT) != null) {
+            query.orderBy = PetEntry._ID.equals(sort)
+                    ? PetEntry._ID + " ASC"
+                    : sort + " ASC, " + PetEntry._ID + " ASC";
+        } else {
+            query.orderBy = sortOrder;
+        }
+        return query;
+    }
+
+    /** Builds a query carrying only the gender, breed and weight filters of {@code uri}. */
+    static PetQuery forFilter(Uri uri, String selection, String[] selectionArgs) {
+        PetQuery query = new PetQuery(selection, selectionArgs);
+
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+        if (gender != null) {
+            if (!PetEntry.isValidGender((int) parseLong(uri, gender))) {
+                throw new IllegalArgumentException("Invalid gender in " + uri);
+            }
+            query.where(PetEntry.COLUMN_PET_GENDER + "=?", gender);
+        }
+
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_BREED);
+        if (breed != null) {
+            // Compares breed ids so the pets_breed_id_index seek applies.
+            query.where(PetDbHelper.COLUMN_BREED_ID + "=" + PetDbHelper.SQL_BREED_ID, breed);
+        }
+
+        String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+        if (minWeight != null) {
+            parseLong(uri, minWeight);
+            query.where(PetEntry.COLUMN_PET_WEIGHT + ">=?", minWeight);
+        }
+
+        String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+        if (maxWeight != null) {
+            parseLong(uri, maxWeight);
+            query.where(PetEntry.COLUMN_PET_WEIGHT + "<=?", maxWeight);
+        }
+        return query;
+    }
+
+    /**
+     * Restricts the rows to those after ({@code afterKey}, {@code afterId}) in sort order. The
+     * leading {@code >=} term gives SQLite a range seek on the sort column's index; the rest
+     * skips the rows of the previous page that share its last key.
+     */
+    private void seekAfter(String sort, String afterId, String afterKey) {
+        if (PetEntry._ID.equals(sort)) {
+            where(PetEntry._ID + ">?", afterId);
+        } else if (afterKey == null) {
+            // Nulls sort first, so everything non-null still lies ahead.
+            where("(" + sort + " IS NOT NULL OR " + PetEntry._ID + ">?)", afterId);
+        } else {
+            where(sort + ">=? AND (" + sort + ">? OR " + PetEntry._ID + ">?)",
+                    afterKey, afterKey, afterId);
+        }
+    }
+
+    private void where(String clause, String... args) {
+        selection = DatabaseUtils.concatenateWhere(selection, clause);
+        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, args);
+    }
+
+    private static String sortColumn(Uri uri) {
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if (sort == null) {
+            return PetEntry._ID;
+        }
+        for (String column : SORT_COLUMNS) {
+            if (column.equals(sort)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Cannot sort on " + sort + " in " + uri);
+    }
+
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && parseLong(uri, limit) <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive in " + uri);
+        }
+        return limit;
+    }
+
+    static long parseLong(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value + " in " + uri, e);
+        }
+    }
+}
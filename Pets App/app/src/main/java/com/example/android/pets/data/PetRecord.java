@@ -0,0 +1,73 @@
+package com.example.android.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of one row of the pets table. Plain Java so {@link PetLiveResult} runs in the
+ * JVM tests; column names are spelled out as {@link PetsContract.PetEntry} defines them.
+ */
+public final class PetRecord {
+
+    /** Columns a record is read from, in the order {@link PetDao#readRecord} expects. */
+    static final String[] COLUMNS = { "_id", "name", "breed", "gender", "weight", "photo" };
+
+    public final long id;
+    public final String name;
+    public final String breed;
+    public final int gender;
+    public final int weight;
+    public final String photo;
+
+    public PetRecord(long id, String name, String breed, int gender, int weight, String photo) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.photo = photo;
+    }
+
+    /** Returns whether every column of {@code projection}, null meaning all, is in a record. */
+    static boolean covers(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!Arrays.asList(COLUMNS).contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the values of the given columns, or of all {@link #COLUMNS} if null. */
+    Object[] toRow(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = get(projection[i]);
+        }
+        return row;
+    }
+
+    private Object get(String column) {
+        switch (column) {
+            case "_id":
+                return id;
+            case "name":
+                return name;
+            case "breed":
+                return breed;
+            case "gender":
+                return gender;
+            case "weight":
+                return weight;
+            case "photo":
+                return photo;
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.pets.data;
+
+/**
+ * The SQL of every version of {@code shelter.db}: the original pets table and, for each later
+ * version, the statements that upgrade the one before. {@link PetMigrations} runs them on the
+ * device; they are plain Java so the benchmark module builds its databases from the very same
+ * statements. Table and column names are spelled out as {@link PetsContract} and
+ * {@link PetDbHelper} define them, since those classes need Android to compile.
+ * To change the schema, append an upgrade and bump {@link PetDbHelper#DATABASE_VERSION}.
+ */
+public final class PetSchema {
+
+    /** Version of the original schema, which every database starts from. */
+    public static final int BASE_VERSION = 1;
+
+    /**
+     * WHERE clause over the pets table that hides deleted pets; the pets view applies it to every
+     * read. The unary plus keeps SQLite from picking the tombstone index for it.
+     */
+    public static final String VISIBLE =
+            "+deleted=0 AND _id>(SELECT deleted_through FROM pets_meta)";
+
+    private static final String BREED_NAME = "(SELECT name FROM breeds WHERE breeds._id = ";
+
+    private static final String[] BASE = {
+            "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0)",
+    };
+
+    /** Entry {@code i} upgrades a database from version {@code BASE_VERSION + i}. */
+    private static final String[][] UPGRADES = {
+            // 2: the FTS4 shadow table, the triggers that keep it in step and the existing pets.
+            {
+                    "CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed)",
+                    "CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO "
+                            + "pets_fts (docid, name, breed) VALUES (new._id, new.name, "
+                            + "new.breed); END",
+                    "CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed ON pets BEGIN "
+                            + "UPDATE pets_fts SET name = new.name, breed = new.breed WHERE "
+                            + "docid = old._id; END",
+                    "CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM "
+                            + "pets_fts WHERE docid = old._id; END",
+                    "INSERT INTO pets_fts (docid, name, breed) SELECT _id, name, breed FROM pets",
+            },
+            // 3
+            {
+                    "CREATE INDEX pets_name_index ON pets (name)",
+                    "CREATE INDEX pets_breed_index ON pets (breed)",
+                    "CREATE INDEX pets_gender_weight_index ON pets (gender, weight)",
+            },
+            // 4: lets the catalog page through every pet in weight order without a sort.
+            {
+                    "CREATE INDEX pets_weight_index ON pets (weight)",
+            },
+            // 5: moves the breed names into the breeds table and rebuilds pets to point at them
+            // by id. SQLite cannot drop a column, so the rows are copied into a new table with
+            // their ids, and the AUTOINCREMENT counter is carried over so deleted ids are still
+            // never reused. Empty breeds become null. The FTS index keeps its content; only its
+            // triggers are replaced.
+            {
+                    "CREATE TABLE breeds (_id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE)",
+                    "INSERT INTO breeds (name) SELECT DISTINCT breed FROM pets WHERE breed <> '' "
+                            + "ORDER BY breed",
+                    "CREATE TABLE pets_new (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "name TEXT NOT NULL, breed_id INTEGER REFERENCES breeds (_id), "
+                            + "gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO pets_new (_id, name, breed_id, gender, weight) SELECT p._id, "
+                            + "p.name, b._id, p.gender, p.weight FROM pets p LEFT JOIN breeds b "
+                            + "ON b.name = p.breed",
+                    // The copy left a counter for the new table only if it held pets, and
+                    // sqlite_sequence has no key on the name, so that row is deleted rather than
+                    // replaced. Dropping pets drops its counter and the rename carries this one.
+                    "DELETE FROM sqlite_sequence WHERE name = 'pets_new'",
+                    "INSERT OR REPLACE INTO sqlite_sequence (name, seq) SELECT 'pets_new', "
+                            + "MAX(IFNULL((SELECT MAX(seq) FROM sqlite_sequence WHERE name = "
+                            + "'pets'), 0), IFNULL((SELECT MAX(_id) FROM pets_new), 0))",
+                    // Also drops the old indexes and triggers.
+                    "DROP TABLE pets",
+                    "ALTER TABLE pets_new RENAME TO pets",
+                    "CREATE INDEX pets_name_index ON pets (name)",
+                    "CREATE INDEX pets_breed_id_index ON pets (breed_id)",
+                    "CREATE INDEX pets_gender_weight_index ON pets (gender, weight)",
+                    "CREATE INDEX pets_weight_index ON pets (weight)",
+                    "CREATE VIEW pets_view AS SELECT _id, name, " + BREED_NAME
+                            + "pets.breed_id) AS breed, gender, weight, breed_id FROM pets",
+                    "CREATE TRIGGER pets_fts_insert AFTER INSERT ON pets BEGIN INSERT INTO "
+                            + "pets_fts (docid, name, breed) VALUES (new._id, new.name, "
+                            + BREED_NAME + "new.breed_id)); END",
+                    "CREATE TRIGGER pets_fts_update AFTER UPDATE OF name, breed_id ON pets BEGIN "
+                            + "UPDATE pets_fts SET name = new.name, breed = " + BREED_NAME
+                            + "new.breed_id) WHERE docid = old._id; END",
+                    "CREATE TRIGGER pets_fts_delete AFTER DELETE ON pets BEGIN DELETE FROM "
+                            + "pets_fts WHERE docid = old._id; END",
+            },
+            // 6: the per gender and breed summary behind the stats URI, filled from the current
+            // pets and kept up to date by triggers. Groups are removed once their last pet goes,
+            // so the table never holds more rows than there are gender and breed combinations.
+            {
+                    "CREATE TABLE pet_stats (gender INTEGER NOT NULL, "
+                            + "breed_key INTEGER NOT NULL, pet_count INTEGER NOT NULL, "
+                            + "total_weight INTEGER NOT NULL, PRIMARY KEY (gender, breed_key))",
+                    "INSERT INTO pet_stats SELECT gender, IFNULL(breed_id, 0), COUNT(*), "
+                            + "SUM(weight) FROM pets GROUP BY 1, 2",
+                    "CREATE TRIGGER pet_stats_insert AFTER INSERT ON pets BEGIN "
+                            + addToStats("new") + " END",
+                    "CREATE TRIGGER pet_stats_update AFTER UPDATE OF gender, breed_id, weight "
+                            + "ON pets BEGIN " + removeFromStats("old") + " " + addToStats("new")
+                            + " END",
+                    "CREATE TRIGGER pet_stats_delete AFTER DELETE ON pets BEGIN "
+                            + removeFromStats("old") + " END",
+            },
+            // 7: turns deletes into tombstones. Deleted pets are flagged, or for a delete of
+            // every pet covered by the deleted_through watermark, and hidden by the pets view
+            // until PetCompactor purges them. The stats triggers only count pets that are still
+            // visible, and the new index lets the compactor find flagged rows without a scan.
+            {
+                    "ALTER TABLE pets ADD COLUMN deleted INTEGER NOT NULL DEFAULT 0",
+                    "CREATE INDEX pets_deleted_index ON pets (deleted)",
+                    "CREATE TABLE pets_meta (deleted_through INTEGER NOT NULL)",
+                    "INSERT INTO pets_meta VALUES (0)",
+                    "DROP VIEW pets_view",
+                    "CREATE VIEW pets_view AS SELECT _id, name, " + BREED_NAME
+                            + "pets.breed_id) AS breed, gender, weight, breed_id FROM pets "
+                            + "WHERE " + VISIBLE,
+                    "DROP TRIGGER pet_stats_update",
+                    "DROP TRIGGER pet_stats_delete",
+                    "CREATE TRIGGER pet_stats_update AFTER UPDATE OF gender, breed_id, weight "
+                            + "ON pets WHEN " + visible("old") + " BEGIN "
+                            + removeFromStats("old") + " " + addToStats("new") + " END",
+                    "CREATE TRIGGER pet_stats_delete AFTER DELETE ON pets WHEN " + visible("old")
+                            + " BEGIN " + removeFromStats("old") + " END",
+                    "CREATE TRIGGER pet_stats_tombstone AFTER UPDATE OF deleted ON pets WHEN "
+                            + "new.deleted <> 0 AND " + visible("old") + " BEGIN "
+                            + removeFromStats("old") + " END",
+            },
+            // 8: the change log behind the changes URI and the triggers that write it, with
+            // op 1 insert, 2 update, 3 delete and 4 delete through. The existing pets are logged
+            // as inserts so a reader starting from nothing still sees them. Deleting every pet
+            // is logged once, as the new watermark, and purging deleted rows is not logged at
+            // all. Old changes are dropped a thousand at a time once more than
+            // PetChangeEntry.RETAINED_CHANGES newer ones exist.
+            {
+                    "CREATE TABLE pet_changes (seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "pet_id INTEGER NOT NULL, op INTEGER NOT NULL)",
+                    "INSERT INTO pet_changes (pet_id, op) SELECT _id, 1 FROM pets WHERE "
+                            + VISIBLE + " ORDER BY _id",
+                    "DELETE FROM pet_changes WHERE seq <= (SELECT MAX(seq) FROM pet_changes) - "
+                            + "10000",
+                    "CREATE TRIGGER pet_changes_insert AFTER INSERT ON pets BEGIN INSERT INTO "
+                            + "pet_changes (pet_id, op) VALUES (new._id, 1); END",
+                    "CREATE TRIGGER pet_changes_update AFTER UPDATE OF name, breed_id, gender, "
+                            + "weight ON pets WHEN " + visible("old") + " BEGIN INSERT INTO "
+                            + "pet_changes (pet_id, op) VALUES (new._id, 2); END",
+                    "CREATE TRIGGER pet_changes_tombstone AFTER UPDATE OF deleted ON pets WHEN "
+                            + "new.deleted <> 0 AND " + visible("old") + " BEGIN INSERT INTO "
+                            + "pet_changes (pet_id, op) VALUES (old._id, 3); END",
+                    "CREATE TRIGGER pet_changes_delete_through AFTER UPDATE OF deleted_through "
+                            + "ON pets_meta WHEN new.deleted_through > old.deleted_through "
+                            + "BEGIN INSERT INTO pet_changes (pet_id, op) VALUES "
+                            + "(new.deleted_through, 4); END",
+                    "CREATE TRIGGER pet_changes_prune AFTER INSERT ON pet_changes WHEN "
+                            + "new.seq % 1000 = 0 BEGIN DELETE FROM pet_changes WHERE "
+                            + "seq <= new.seq - 10000; END",
+            },
+            // 9: the photo column, which names a file kept by PetPhotos, shown through the pets
+            // view.
+            {
+                    "ALTER TABLE pets ADD COLUMN photo TEXT",
+                    "DROP VIEW pets_view",
+                    "CREATE VIEW pets_view AS SELECT _id, name, " + BREED_NAME
+                            + "pets.breed_id) AS breed, gender, weight, photo, breed_id FROM pets "
+                            + "WHERE " + VISIBLE,
+            },
+            // 10: PetSubscription patches its rows from the log, photos included.
+            {
+                    "DROP TRIGGER pet_changes_update",
+                    "CREATE TRIGGER pet_changes_update AFTER UPDATE OF name, breed_id, gender, "
+                            + "weight, photo ON pets WHEN " + visible("old") + " BEGIN INSERT "
+                            + "INTO pet_changes (pet_id, op) VALUES (new._id, 2); END",
+            },
+    };
+
+    /** Version reached by running every upgrade. */
+    public static final int VERSION = BASE_VERSION + UPGRADES.length;
+
+    private PetSchema() {
+    }
+
+    /**
+     * Returns the statements that create the schema at {@link #BASE_VERSION}, or for a later
+     * {@code version} the ones that upgrade a database from {@code version - 1} to it.
+     */
+    public static String[] statements(int version) {
+        if (version < BASE_VERSION || version > VERSION) {
+            throw new IllegalArgumentException("No schema version " + version);
+        }
+        return (version == BASE_VERSION ? BASE : UPGRADES[version - BASE_VERSION - 1]).clone();
+    }
+
+    /** Trigger condition that the {@code row} pet is neither flagged nor below the watermark. */
+    private static String visible(String row) {
+        return row + ".deleted = 0 AND " + row + "._id > (SELECT deleted_through FROM pets_meta)";
+    }
+
+    /** Trigger statements counting the {@code row} pet into its group, creating it if needed. */
+    private static String addToStats(String row) {
+        return "INSERT OR IGNORE INTO pet_stats VALUES (" + row + ".gender, IFNULL(" + row
+                + ".breed_id, 0), 0, 0); UPDATE pet_stats SET pet_count = pet_count + 1, "
+                + "total_weight = total_weight + " + row + ".weight" + statsGroup(row) + ";";
+    }
+
+    /** Trigger statements taking the {@code row} pet out of its group, dropping it when empty. */
+    private static String removeFromStats(String row) {
+        return "UPDATE pet_stats SET pet_count = pet_count - 1, total_weight = total_weight - "
+                + row + ".weight" + statsGroup(row) + "; DELETE FROM pet_stats" + statsGroup(row)
+                + " AND pet_count = 0;";
+    }
+
+    private static String statsGroup(String row) {
+        return " WHERE gender = " + row + ".gender AND breed_key = IFNULL(" + row
+                + ".breed_id, 0)";
+    }
+}
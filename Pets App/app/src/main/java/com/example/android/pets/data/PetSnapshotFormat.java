@@ -0,0 +1,407 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the pets table, used to back up and restore a whole shelter. Plain Java
+ * with no Android dependencies, so the benchmark module compiles the same source.
+ *
+ * <p>A snapshot is an 8-byte header (magic, {@link #VERSION}) followed by frames of
+ * {@code length, payload, crc32}. Each payload is a block of up to {@link #BLOCK_ROWS} pets laid
+ * out column by column:
+ * <pre>
+ *   varint rows
+ *   varint new breeds, then each as varint length + UTF-8   (appended to the dictionary)
+ *   rows x zigzag varint id delta
+ *   rows x byte gender
+ *   rows x zigzag varint weight
+ *   rows x varint breed code (0 is null, n is dictionary entry n - 1)
+ *   rows x varint name length, then the UTF-8 names back to back
+ * </pre>
+ * A block with zero rows ends the snapshot and carries the total row count, so a truncated file
+ * is detected.
+ */
+public final class PetSnapshotFormat {
+
+    /** Format version written to new snapshots; readers reject anything newer. */
+    public static final int VERSION = 1;
+
+    /** Maximum pets per block, bounding the memory used on either side. */
+    public static final int BLOCK_ROWS = 4096;
+
+    private static final int MAGIC = 0x50455453; // "PETS"
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PetSnapshotFormat() {
+    }
+
+    /** Streams pets into a snapshot. Pets should be added in id order for the smallest output. */
+    public static final class Writer {
+
+        private final WritableByteChannel mChannel;
+        private final long[] mIds = new long[BLOCK_ROWS];
+        private final int[] mNameLengths = new int[BLOCK_ROWS];
+        private final int[] mBreeds = new int[BLOCK_ROWS];
+        private final byte[] mGenders = new byte[BLOCK_ROWS];
+        private final int[] mWeights = new int[BLOCK_ROWS];
+        private final Map<String, Integer> mDictionary = new HashMap<>();
+        private final List<String> mNewBreeds = new ArrayList<>();
+        private final Output mOut = new Output();
+        private final CRC32 mCrc = new CRC32();
+
+        /** UTF-8 names of the block so far, back to back; lengths in {@link #mNameLengths}. */
+        private byte[] mNameBytes = new byte[BLOCK_ROWS * 16];
+        private int mNameBytesLength;
+        private int mSize;
+        private long mRows;
+        private long mLastId;
+
+        /** Starts a snapshot on {@code channel}, which stays owned by the caller. */
+        public Writer(WritableByteChannel channel) throws IOException {
+            mChannel = channel;
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+
+        /**
+         * Adds a pet whose name is the {@code length} chars of {@code name} from {@code start}.
+         * The name is encoded straight away, so the chars may be reused once this returns.
+         */
+        public void add(long id, char[] name, int start, int length, String breed, int gender,
+                int weight) throws IOException {
+            Integer code = 0;
+            if (breed != null) {
+                code = mDictionary.get(breed);
+                if (code == null) {
+                    code = mDictionary.size() + 1;
+                    mDictionary.put(breed, code);
+                    mNewBreeds.add(breed);
+                }
+            }
+            mIds[mSize] = id;
+            mNameLengths[mSize] = appendName(name, start, length);
+            mBreeds[mSize] = code;
+            mGenders[mSize] = (byte) gender;
+            mWeights[mSize] = weight;
+            if (++mSize == BLOCK_ROWS) {
+                flushBlock();
+            }
+        }
+
+        /** Writes the last block and the end marker; returns the number of pets written. */
+        public long finish() throws IOException {
+            flushBlock();
+            mOut.reset();
+            mOut.writeVarint(0);
+            mOut.writeVarint(mRows);
+            writeFrame();
+            return mRows;
+        }
+
+        private void flushBlock() throws IOException {
+            if (mSize == 0) {
+                return;
+            }
+            Output out = mOut;
+            out.reset();
+            out.writeVarint(mSize);
+
+            out.writeVarint(mNewBreeds.size());
+            for (String breed : mNewBreeds) {
+                out.writeString(breed);
+            }
+            mNewBreeds.clear();
+
+            for (int i = 0; i < mSize; i++) {
+                out.writeVarint(zigzag(mIds[i] - mLastId));
+                mLastId = mIds[i];
+            }
+            out.writeBytes(mGenders, 0, mSize);
+            for (int i = 0; i < mSize; i++) {
+                out.writeVarint(zigzag(mWeights[i]));
+            }
+            for (int i = 0; i < mSize; i++) {
+                out.writeVarint(mBreeds[i]);
+            }
+            for (int i = 0; i < mSize; i++) {
+                out.writeVarint(mNameLengths[i]);
+            }
+            out.writeBytes(mNameBytes, 0, mNameBytesLength);
+            mNameBytesLength = 0;
+
+            writeFrame();
+            mRows += mSize;
+            mSize = 0;
+        }
+
+        /**
+         * Appends the chars as UTF-8 to {@link #mNameBytes} and returns the number of bytes, the
+         * same bytes {@code String.getBytes} gives: an unpaired surrogate becomes '?'.
+         */
+        private int appendName(char[] chars, int start, int length) {
+            // No char takes more than three bytes, and a surrogate pair takes four for two.
+            if (mNameBytesLength + length * 3 > mNameBytes.length) {
+                mNameBytes = Arrays.copyOf(mNameBytes,
+                        Math.max(mNameBytes.length * 2, mNameBytesLength + length * 3));
+            }
+            byte[] bytes = mNameBytes;
+            int position = mNameBytesLength;
+            for (int i = start, end = start + length; i < end; i++) {
+                char c = chars[i];
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xC0 | c >> 6);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                    bytes[position++] = (byte) (0xE0 | c >> 12);
+                    bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(chars[i + 1])) {
+                    int codePoint = Character.toCodePoint(c, chars[++i]);
+                    bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    bytes[position++] = '?';
+                }
+            }
+            int written = position - mNameBytesLength;
+            mNameBytesLength = position;
+            return written;
+        }
+
+        private void writeFrame() throws IOException {
+            mCrc.reset();
+            mCrc.update(mOut.mBytes, 0, mOut.mLength);
+            ByteBuffer length = ByteBuffer.allocate(4);
+            length.putInt(mOut.mLength).flip();
+            writeFully(length);
+            writeFully(ByteBuffer.wrap(mOut.mBytes, 0, mOut.mLength));
+            ByteBuffer crc = ByteBuffer.allocate(4);
+            crc.putInt((int) mCrc.getValue()).flip();
+            writeFully(crc);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot file through a read-only memory mapping, one block at a time. Call
+     * {@link #next} before reading each pet.
+     */
+    public static final class Reader {
+
+        private final ByteBuffer mFile;
+        private final List<String> mDictionary = new ArrayList<>();
+        private final CRC32 mCrc = new CRC32();
+        private byte[] mPayload = new byte[0];
+        private final long[] mIds = new long[BLOCK_ROWS];
+        private final String[] mNames = new String[BLOCK_ROWS];
+        private final int[] mNameLengths = new int[BLOCK_ROWS];
+        private final int[] mBreeds = new int[BLOCK_ROWS];
+        private final byte[] mGenders = new byte[BLOCK_ROWS];
+        private final int[] mWeights = new int[BLOCK_ROWS];
+        private int mSize;
+        private int mIndex = -1;
+        private long mRows;
+        private long mLastId;
+        private boolean mFinished;
+
+        /** Maps the whole of {@code channel}; the mapping outlives the channel being closed. */
+        public Reader(FileChannel channel) throws IOException {
+            mFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mFile.remaining() < 8 || mFile.getInt() != MAGIC) {
+                throw new IOException("Not a pet snapshot");
+            }
+            int version = mFile.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported pet snapshot version " + version);
+            }
+        }
+
+        /** Moves to the next pet; returns false once every pet has been read. */
+        public boolean next() throws IOException {
+            if (++mIndex < mSize) {
+                return true;
+            }
+            if (mFinished) {
+                return false;
+            }
+            readBlock();
+            mIndex = 0;
+            return mSize > 0;
+        }
+
+        public long id() {
+            return mIds[mIndex];
+        }
+
+        public String name() {
+            return mNames[mIndex];
+        }
+
+        public String breed() {
+            int code = mBreeds[mIndex];
+            return code == 0 ? null : mDictionary.get(code - 1);
+        }
+
+        public int gender() {
+            return mGenders[mIndex];
+        }
+
+        public int weight() {
+            return mWeights[mIndex];
+        }
+
+        private void readBlock() throws IOException {
+            if (mFile.remaining() < 4) {
+                throw new IOException("Pet snapshot is truncated after " + mRows + " pets");
+            }
+            int length = mFile.getInt();
+            if (length < 0 || mFile.remaining() < length + 4) {
+                throw new IOException("Pet snapshot is truncated after " + mRows + " pets");
+            }
+            if (mPayload.length < length) {
+                mPayload = new byte[length];
+            }
+            mFile.get(mPayload, 0, length);
+            mCrc.reset();
+            mCrc.update(mPayload, 0, length);
+            if ((int) mCrc.getValue() != mFile.getInt()) {
+                throw new IOException("Pet snapshot is corrupt after " + mRows + " pets");
+            }
+
+            ByteBuffer in = ByteBuffer.wrap(mPayload, 0, length);
+            try {
+                mSize = (int) readVarint(in);
+                if (mSize == 0) {
+                    long total = readVarint(in);
+                    if (total != mRows) {
+                        throw new IOException("Pet snapshot holds " + mRows + " pets, expected "
+                                + total);
+                    }
+                    mFinished = true;
+                    return;
+                }
+                if (mSize > BLOCK_ROWS) {
+                    throw new IOException("Pet snapshot block of " + mSize + " pets is too big");
+                }
+
+                int newBreeds = (int) readVarint(in);
+                for (int i = 0; i < newBreeds; i++) {
+                    mDictionary.add(readString(in, (int) readVarint(in)));
+                }
+                for (int i = 0; i < mSize; i++) {
+                    mLastId += unzigzag(readVarint(in));
+                    mIds[i] = mLastId;
+                }
+                in.get(mGenders, 0, mSize);
+                for (int i = 0; i < mSize; i++) {
+                    mWeights[i] = (int) unzigzag(readVarint(in));
+                }
+                for (int i = 0; i < mSize; i++) {
+                    mBreeds[i] = (int) readVarint(in);
+                    if (mBreeds[i] > mDictionary.size()) {
+                        throw new IOException("Pet snapshot has an unknown breed code");
+                    }
+                }
+                for (int i = 0; i < mSize; i++) {
+                    mNameLengths[i] = (int) readVarint(in);
+                }
+                for (int i = 0; i < mSize; i++) {
+                    mNames[i] = readString(in, mNameLengths[i]);
+                }
+            } catch (RuntimeException e) {
+                // BufferUnderflowException and friends from a block that passed its checksum
+                // but does not match the layout.
+                throw new IOException("Pet snapshot block is malformed", e);
+            }
+            mRows += mSize;
+        }
+
+        private static String readString(ByteBuffer in, int length) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+    }
+
+    /** Growable byte array that a block is encoded into before it is framed. */
+    private static final class Output {
+
+        byte[] mBytes = new byte[64 * 1024];
+        int mLength;
+
+        void reset() {
+            mLength = 0;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                mBytes[mLength++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBytes[mLength++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, mBytes, mLength, count);
+            mLength += count;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        private void ensure(int count) {
+            if (mLength + count > mBytes.length) {
+                byte[] grown = new byte[Math.max(mBytes.length * 2, mLength + count)];
+                System.arraycopy(mBytes, 0, grown, 0, mLength);
+                mBytes = grown;
+            }
+        }
+    }
+
+    static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Pet snapshot has a malformed varint");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
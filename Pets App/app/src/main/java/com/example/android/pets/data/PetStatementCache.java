@@ -0,0 +1,281 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps compiled {@link SQLiteStatement}s for the provider's single-row write paths so SQLite
+ * does not rebuild and recompile the same SQL for every insert, update or delete. Statements are
+ * keyed by kind and column set and bound directly from the {@link ContentValues}. A breed is
+ * written as the id of its row in the breeds table, which is added first if it is new. Deletes
+ * only flag the rows, and neither updates nor deletes touch a pet that is already deleted.
+ * Updates skip rows that already hold every value written, so rewriting the same values changes
+ * nothing, fires no triggers and reports no rows.
+ *
+ * <p>A statement is checked out while it runs and returned afterwards, so two threads never share
+ * one and no lock is held while SQLite waits for the database. All statements are dropped when the
+ * database they were compiled against is closed or replaced.
+ */
+final class PetStatementCache {
+
+    private static final int MAX_STATEMENTS = 16;
+
+    /** Start of a delete, which sets the tombstone flag; PetCompactor removes the rows later. */
+    private static final String SQL_DELETE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetDbHelper.COLUMN_DELETED + "=1 WHERE ";
+
+    /** Selects the visible pet whose id is bound after the values of an update. */
+    private static final String WHERE_ID = PetEntry._ID + "=? AND " + PetDbHelper.SQL_VISIBLE;
+
+    private final Map<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        eldest.getValue().close();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    private SQLiteDatabase mDatabase;
+
+    /** Inserts one row and returns its id. */
+    long insert(SQLiteDatabase db, ContentValues values) {
+        addBreed(db, values);
+        List<String> columns = sortedColumns(values);
+        String key = "I" + columns;
+        SQLiteStatement statement = acquire(db, key);
+        try {
+            if (statement == null) {
+                statement = db.compileStatement(buildInsert(columns));
+            }
+            bind(statement, columns, values, 1);
+            return statement.executeInsert();
+        } finally {
+            release(db, key, statement);
+        }
+    }
+
+    /** Updates the pet with the given id and returns the number of rows changed. */
+    int updateById(SQLiteDatabase db, long id, ContentValues values) {
+        addBreed(db, values);
+        List<String> columns = sortedColumns(values);
+        String key = "U" + columns;
+        SQLiteStatement statement = acquire(db, key);
+        try {
+            if (statement == null) {
+                statement = db.compileStatement(buildUpdate(columns, WHERE_ID));
+            }
+            bindUpdate(statement, columns, values);
+            statement.bindLong(2 * columns.size() + 1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(db, key, statement);
+        }
+    }
+
+    /**
+     * Updates every row matching {@code where}, which may use any column of the pets view, and
+     * returns the number of rows changed. The statement is not cached since the clause varies.
+     */
+    int update(SQLiteDatabase db, ContentValues values, String where, String[] whereArgs) {
+        addBreed(db, values);
+        List<String> columns = sortedColumns(values);
+        SQLiteStatement statement = db.compileStatement(buildUpdate(columns, viewWhere(where)));
+        try {
+            bindUpdate(statement, columns, values);
+            if (whereArgs != null) {
+                for (int i = 0; i < whereArgs.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, 2 * columns.size() + i + 1,
+                            whereArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** Returns the SQL {@link #updateById} compiles for {@code values}, for the slow log. */
+    static String updateByIdSql(ContentValues values) {
+        return buildUpdate(sortedColumns(values), WHERE_ID);
+    }
+
+    /** Returns the SQL {@link #update} compiles for {@code values} and {@code where}. */
+    static String updateSql(ContentValues values, String where) {
+        return buildUpdate(sortedColumns(values), viewWhere(where));
+    }
+
+    /**
+     * Turns a WHERE clause over the pets view into one over the pets table. No clause selects
+     * every pet that is not deleted, so whole-table writes stay a plain scan.
+     */
+    static String viewWhere(String where) {
+        if (where == null) {
+            return PetDbHelper.SQL_VISIBLE;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetDbHelper.PETS_VIEW_NAME
+                + " WHERE " + where + ")";
+    }
+
+    /** Deletes the pet with the given id and returns the number of pets deleted. */
+    int deleteById(SQLiteDatabase db, long id) {
+        String key = "D";
+        SQLiteStatement statement = acquire(db, key);
+        try {
+            if (statement == null) {
+                statement = db.compileStatement(SQL_DELETE + PetEntry._ID + "=? AND "
+                        + PetDbHelper.SQL_VISIBLE);
+            }
+            statement.clearBindings();
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(db, key, statement);
+        }
+    }
+
+    /**
+     * Deletes every pet matching {@code where}, a clause over the pets view, and returns the
+     * number of pets deleted. The statement is not cached since the clause varies.
+     */
+    int delete(SQLiteDatabase db, String where, String[] whereArgs) {
+        SQLiteStatement statement = db.compileStatement(SQL_DELETE + viewWhere(where));
+        try {
+            if (whereArgs != null) {
+                for (int i = 0; i < whereArgs.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, whereArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** Makes sure the breed in {@code values}, if any, has a row in the breeds table. */
+    private void addBreed(SQLiteDatabase db, ContentValues values) {
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null || breed.isEmpty()) {
+            return;
+        }
+        String key = "B";
+        SQLiteStatement statement = acquire(db, key);
+        try {
+            if (statement == null) {
+                statement = db.compileStatement(PetDbHelper.SQL_ADD_BREED);
+            }
+            statement.bindString(1, breed);
+            statement.execute();
+        } finally {
+            release(db, key, statement);
+        }
+    }
+
+    /** Closes and forgets every cached statement. */
+    synchronized void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mDatabase = null;
+    }
+
+    private synchronized SQLiteStatement acquire(SQLiteDatabase db, String key) {
+        if (db != mDatabase) {
+            clear();
+            mDatabase = db;
+        }
+        return mStatements.remove(key);
+    }
+
+    private synchronized void release(SQLiteDatabase db, String key, SQLiteStatement statement) {
+        if (statement == null) {
+            return;
+        }
+        if (db != mDatabase || !db.isOpen() || mStatements.containsKey(key)) {
+            statement.close();
+            return;
+        }
+        mStatements.put(key, statement);
+    }
+
+    private static List<String> sortedColumns(ContentValues values) {
+        List<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        return columns;
+    }
+
+    private static void bind(SQLiteStatement statement, List<String> columns, ContentValues values,
+                             int firstIndex) {
+        statement.clearBindings();
+        int index = firstIndex;
+        for (String column : columns) {
+            DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+        }
+    }
+
+    /** Binds the new values of an update, once for SET and once for its no-op guard. */
+    private static void bindUpdate(SQLiteStatement statement, List<String> columns,
+                                   ContentValues values) {
+        bind(statement, columns, values, 1);
+        int index = columns.size() + 1;
+        for (String column : columns) {
+            DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+        }
+    }
+
+    private static String buildInsert(List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(PetEntry.TABLE_NAME).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (Iterator<String> it = columns.iterator(); it.hasNext(); ) {
+            String column = it.next();
+            sql.append(tableColumn(column));
+            params.append(parameter(column));
+            if (it.hasNext()) {
+                sql.append(", ");
+                params.append(", ");
+            }
+        }
+        return sql.append(") VALUES (").append(params).append(')').toString();
+    }
+
+    private static String buildUpdate(List<String> columns, String where) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+        StringBuilder changed = new StringBuilder();
+        for (Iterator<String> it = columns.iterator(); it.hasNext(); ) {
+            String column = it.next();
+            sql.append(tableColumn(column)).append('=').append(parameter(column));
+            // IS NOT treats two nulls as equal, so clearing an empty breed is a no-op too.
+            changed.append(tableColumn(column)).append(" IS NOT ").append(parameter(column));
+            if (it.hasNext()) {
+                sql.append(", ");
+                changed.append(" OR ");
+            }
+        }
+        return sql.append(" WHERE (").append(changed).append(") AND ").append(where).toString();
+    }
+
+    /** The pets table column a contract column is stored in. */
+    private static String tableColumn(String column) {
+        return PetEntry.COLUMN_PET_BREED.equals(column) ? PetDbHelper.COLUMN_BREED_ID : column;
+    }
+
+    /** The placeholder for a contract column; a breed name is bound and looked up by id. */
+    private static String parameter(String column) {
+        return PetEntry.COLUMN_PET_BREED.equals(column) ? PetDbHelper.SQL_BREED_ID : "?";
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetChangeEntry;
+import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetFilter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live result of a filtered pets query. The matching pets are loaded once; after that every
+ * change notification reads only the new entries of the {@link PetChangeEntry} feed, which carry
+ * the changed pets' ids and current values, and patches the result in place. A change to a pet
+ * that neither matched before nor matches now costs one read of the feed and no emission, and
+ * no change re-runs the filtered query unless the feed has been pruned past the subscription.
+ * Results are delivered on a background thread shared by all subscriptions.
+ */
+public final class PetSubscription implements Closeable {
+
+    private static final String LOG_TAG = PetSubscription.class.getSimpleName();
+
+    /** Feed entries read per query while catching up. */
+    private static final int CHANGES_PAGE = 1000;
+
+    private static final String[] CHANGE_COLUMNS = {
+            PetChangeEntry.COLUMN_SEQUENCE,
+            PetChangeEntry.COLUMN_OP,
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO,
+    };
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    public interface Listener {
+        /**
+         * Called on the subscription thread with every matching pet in sort order, first once
+         * loaded and then after each change that affects the result. The list is unmodifiable.
+         */
+        void onPetsChanged(List<PetRecord> pets);
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+    private final Uri mUri;
+    /** Change notifications not yet covered by a refresh; nonzero while one is queued or runs. */
+    private final AtomicInteger mRefreshRequests = new AtomicInteger();
+    private volatile boolean mClosed;
+
+    // Only touched on the subscription thread.
+    private final PetLiveResult mResult;
+    private long mSequence;
+    private boolean mLoaded;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            requestRefresh();
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            // Everything requested so far is read below; later requests need another run.
+            int requests = mRefreshRequests.get();
+            try {
+                if (mClosed) {
+                    return;
+                }
+                boolean changed = mLoaded ? applyChanges() : reload();
+                if (changed && !mClosed) {
+                    mListener.onPetsChanged(mResult.pets());
+                }
+            } catch (SQLException | IllegalStateException e) {
+                // The next change notification tries again from the same place.
+                Log.w(LOG_TAG, "Refreshing " + mUri + " failed", e);
+            } finally {
+                if (mRefreshRequests.addAndGet(-requests) > 0 && !mClosed) {
+                    sExecutor.execute(this);
+                }
+            }
+        }
+    };
+
+    private PetSubscription(Context context, PetFilter filter, Listener listener) {
+        mResolver = context.getContentResolver();
+        mListener = listener;
+        mUri = filter.appendTo(PetEntry.CONTENT_URI).buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, filter.getSort())
+                .build();
+        mResult = new PetLiveResult(filter.getGender(), filter.getBreed(),
+                filter.getMinWeight(), filter.getMaxWeight(), filter.getSort());
+    }
+
+    /**
+     * Starts following the pets that match {@code filter}, in its sort order. Later changes to
+     * {@code filter} do not affect the subscription. Close it to stop.
+     */
+    public static PetSubscription subscribe(Context context, PetFilter filter,
+            Listener listener) {
+        PetSubscription subscription = new PetSubscription(context, filter, listener);
+        // Registered before the first load, so nothing written in between goes unseen.
+        subscription.mResolver.registerContentObserver(PetEntry.CONTENT_URI, true,
+                subscription.mObserver);
+        subscription.requestRefresh();
+        return subscription;
+    }
+
+    /** Stops the subscription; the listener is not called again once a running call returns. */
+    @Override
+    public void close() {
+        mClosed = true;
+        mResolver.unregisterContentObserver(mObserver);
+    }
+
+    /** Queues a refresh unless one is already queued, so a burst of changes is read once. */
+    private void requestRefresh() {
+        if (!mClosed && mRefreshRequests.getAndIncrement() == 0) {
+            sExecutor.execute(mRefresh);
+        }
+    }
+
+    /**
+     * Loads every matching pet. The feed position is read first, so a change made during the
+     * load is applied again afterwards, which leaves the pet as it is.
+     */
+    private boolean reload() {
+        long sequence;
+        Cursor latest = mResolver.query(PetChangeEntry.CONTENT_LATEST_URI, null, null, null,
+                null);
+        if (latest == null) {
+            return false;
+        }
+        try {
+            sequence = latest.moveToFirst() ? latest.getLong(0) : 0;
+        } finally {
+            latest.close();
+        }
+
+        Cursor cursor = mResolver.query(mUri, PetRecord.COLUMNS, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        List<PetRecord> pets = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(PetDao.readRecord(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        mResult.reset(pets);
+        mSequence = sequence;
+        mLoaded = true;
+        return true;
+    }
+
+    /** Applies the feed entries since the last read; returns whether the result changed. */
+    private boolean applyChanges() {
+        boolean changed = false;
+        while (true) {
+            Cursor cursor = mResolver.query(
+                    PetChangeEntry.buildChangesUri(mSequence, CHANGES_PAGE), CHANGE_COLUMNS,
+                    null, null, null);
+            if (cursor == null) {
+                return changed;
+            }
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    int op = cursor.getInt(1);
+                    if (op == PetChangeEntry.OP_RESET) {
+                        // The entries since the last read were pruned unseen.
+                        return reload();
+                    }
+                    long id = cursor.getLong(2);
+                    // The name is null when the pet has been deleted since the entry was logged.
+                    PetRecord pet = cursor.isNull(3) ? null : new PetRecord(id,
+                            cursor.getString(3), cursor.getString(4), cursor.getInt(5),
+                            cursor.getInt(6), cursor.getString(7));
+                    changed |= mResult.apply(op, id, pet);
+                    mSequence = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (rows < CHANGES_PAGE) {
+                return changed;
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams the pets table to and from CSV or JSON through {@link PetProvider}. Both directions
+ * hold one chunk or page of pets in memory at a time, so the size of the file does not matter.
+ * Ids are not carried over; imported pets get new ones.
+ *
+ * <p>CSV files start with a header naming the {@link #COLUMNS}, in any order. JSON files hold
+ * one array of objects keyed by the same names. A missing breed is an empty CSV field or a JSON
+ * null. The methods block, so call them off the main thread. The streams are not closed.
+ */
+public final class PetTransfer {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /** Columns written by an export and understood by an import. */
+    public static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+    };
+
+    /** Pets committed per bulkInsert, and so per transaction, during an import. */
+    private static final int IMPORT_CHUNK_SIZE = 500;
+
+    /** Pets read per keyset page during an export. */
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Receives the running number of pets transferred, once per chunk or page. */
+    public interface ProgressListener {
+        void onProgress(long rows);
+    }
+
+    private PetTransfer() {
+    }
+
+    /**
+     * Reads pets from {@code in} and inserts them in chunks of {@link #IMPORT_CHUNK_SIZE}, each
+     * in its own transaction. Every pet is checked with the rules of {@link PetProvider#insert}
+     * before its chunk is sent. On a bad record an IOException naming it is thrown; the chunks
+     * before it stay committed.
+     *
+     * @return the number of pets imported
+     */
+    public static long importPets(ContentResolver resolver, InputStream in, int format,
+                                  ProgressListener listener) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        RecordReader records = format == FORMAT_JSON
+                ? new JsonRecordReader(reader) : new CsvRecordReader(reader);
+
+        ContentValues[] chunk = new ContentValues[IMPORT_CHUNK_SIZE];
+        int size = 0;
+        long total = 0;
+        ContentValues values;
+        while ((values = records.next()) != null) {
+            try {
+                PetProvider.validateInsert(values);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid pet at record " + records.position() + ": "
+                        + e.getMessage());
+            }
+            chunk[size++] = values;
+            if (size == chunk.length) {
+                total += resolver.bulkInsert(PetEntry.CONTENT_URI, chunk);
+                size = 0;
+                if (listener != null) {
+                    listener.onProgress(total);
+                }
+            }
+        }
+        if (size > 0) {
+            total += resolver.bulkInsert(PetEntry.CONTENT_URI, Arrays.copyOf(chunk, size));
+            if (listener != null) {
+                listener.onProgress(total);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes every pet to {@code out} in id order. The table is read in keyset pages of
+     * {@link #EXPORT_PAGE_SIZE}, each copied into one reused {@link PetBatch} and closed before
+     * its pets are written.
+     *
+     * @return the number of pets exported
+     */
+    public static long exportPets(ContentResolver resolver, OutputStream out, int format,
+                                  ProgressListener listener) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        RecordWriter records = format == FORMAT_JSON
+                ? new JsonRecordWriter(writer) : new CsvRecordWriter(writer);
+
+        PetBatch batch = new PetBatch(EXPORT_PAGE_SIZE);
+        records.begin();
+        long afterId = 0;
+        long total = 0;
+        int count;
+        do {
+            Cursor cursor = resolver.query(PetEntry.buildPageUri(afterId, EXPORT_PAGE_SIZE),
+                    PetBatch.COLUMNS, null, null, null);
+            if (cursor == null) {
+                throw new IOException("Pet provider is not available");
+            }
+            try {
+                count = batch.fill(cursor);
+            } finally {
+                cursor.close();
+            }
+            byte[] genders = batch.genders();
+            int[] weights = batch.weights();
+            int[] breeds = batch.breedCodes();
+            char[] names = batch.nameChars();
+            for (int i = 0; i < count; i++) {
+                records.write(names, batch.nameStart(i), batch.nameLength(i),
+                        batch.breedName(breeds[i]), genders[i], weights[i]);
+            }
+            if (count > 0) {
+                afterId = batch.ids()[count - 1];
+            }
+            total += count;
+            if (listener != null) {
+                listener.onProgress(total);
+            }
+        } while (count == EXPORT_PAGE_SIZE);
+        records.end();
+        writer.flush();
+        return total;
+    }
+
+    /** Pulls one pet at a time out of an import file. */
+    private abstract static class RecordReader {
+
+        /** Returns the next pet, or null at the end of the file. */
+        abstract ContentValues next() throws IOException;
+
+        /** 1-based number of the record last returned by {@link #next}. */
+        abstract long position();
+    }
+
+    private abstract static class RecordWriter {
+
+        abstract void begin() throws IOException;
+
+        /** Writes a pet named by the {@code length} chars of {@code name} from {@code start}. */
+        abstract void write(char[] name, int start, int length, String breed, int gender,
+                int weight) throws IOException;
+
+        abstract void end() throws IOException;
+    }
+
+    /** RFC 4180 reader: quoted fields may hold commas, doubled quotes and line breaks. */
+    private static final class CsvRecordReader extends RecordReader {
+
+        private final Reader mReader;
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+        private String[] mHeader;
+        private long mRecord;
+        private int mPeeked = -2;
+
+        CsvRecordReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        ContentValues next() throws IOException {
+            if (mHeader == null) {
+                if (!readRecord()) {
+                    return null;
+                }
+                // Spreadsheet programs often start UTF-8 files with a byte order mark.
+                if (mFields.get(0).startsWith("\uFEFF")) {
+                    mFields.set(0, mFields.get(0).substring(1));
+                }
+                mHeader = mFields.toArray(new String[mFields.size()]);
+                for (String column : COLUMNS) {
+                    if (!mFields.contains(column)) {
+                        throw new IOException("CSV header is missing the " + column + " column");
+                    }
+                }
+            }
+            if (!readRecord()) {
+                return null;
+            }
+            mRecord++;
+            if (mFields.size() != mHeader.length) {
+                throw new IOException("Record " + mRecord + " has " + mFields.size()
+                        + " fields but the header has " + mHeader.length);
+            }
+
+            ContentValues values = new ContentValues(COLUMNS.length);
+            for (int i = 0; i < mHeader.length; i++) {
+                String value = mFields.get(i);
+                switch (mHeader[i]) {
+                    case PetEntry.COLUMN_PET_NAME:
+                        values.put(PetEntry.COLUMN_PET_NAME, value);
+                        break;
+                    case PetEntry.COLUMN_PET_BREED:
+                        values.put(PetEntry.COLUMN_PET_BREED, value.isEmpty() ? null : value);
+                        break;
+                    case PetEntry.COLUMN_PET_GENDER:
+                        values.put(PetEntry.COLUMN_PET_GENDER, parseInt(value));
+                        break;
+                    case PetEntry.COLUMN_PET_WEIGHT:
+                        values.put(PetEntry.COLUMN_PET_WEIGHT, parseInt(value));
+                        break;
+                }
+            }
+            return values;
+        }
+
+        @Override
+        long position() {
+            return mRecord;
+        }
+
+        private int parseInt(String value) throws IOException {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Record " + mRecord + " has invalid number " + value);
+            }
+        }
+
+        /**
+         * Reads the fields of the next record into {@link #mFields}, skipping blank lines; false
+         * at end of file.
+         */
+        private boolean readRecord() throws IOException {
+            mFields.clear();
+            int c = read();
+            // Blank lines, like the one many editors leave at the end, hold no record.
+            while (c == '\n' || c == '\r') {
+                c = read();
+            }
+            if (c == -1) {
+                return false;
+            }
+            while (true) {
+                mField.setLength(0);
+                if (c == '"') {
+                    while (true) {
+                        c = read();
+                        if (c == -1) {
+                            throw new IOException("Unterminated quoted field after record "
+                                    + mRecord);
+                        }
+                        if (c == '"') {
+                            if (peek() != '"') {
+                                break;
+                            }
+                            read();
+                        }
+                        mField.append((char) c);
+                    }
+                    c = read();
+                    if (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                        throw new IOException("Unexpected text after quoted field in record "
+                                + (mRecord + 1));
+                    }
+                } else {
+                    while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                        mField.append((char) c);
+                        c = read();
+                    }
+                }
+                mFields.add(mField.toString());
+
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                return true;
+            }
+        }
+
+        private int read() throws IOException {
+            if (mPeeked != -2) {
+                int c = mPeeked;
+                mPeeked = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        private int peek() throws IOException {
+            if (mPeeked == -2) {
+                mPeeked = mReader.read();
+            }
+            return mPeeked;
+        }
+    }
+
+    private static final class CsvRecordWriter extends RecordWriter {
+
+        private final Writer mWriter;
+
+        /** Digits of the number being written, filled from the end. */
+        private final char[] mDigits = new char[11];
+
+        CsvRecordWriter(Writer writer) {
+            mWriter = writer;
+        }
+
+        @Override
+        void begin() throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    mWriter.write(',');
+                }
+                mWriter.write(COLUMNS[i]);
+            }
+            mWriter.write("\r\n");
+        }
+
+        @Override
+        void write(char[] name, int start, int length, String breed, int gender, int weight)
+                throws IOException {
+            writeField(name, start, length);
+            mWriter.write(',');
+            writeField(breed);
+            mWriter.write(',');
+            writeInt(gender);
+            mWriter.write(',');
+            writeInt(weight);
+            mWriter.write("\r\n");
+        }
+
+        @Override
+        void end() {
+        }
+
+        private void writeField(char[] value, int start, int length) throws IOException {
+            int end = start + length;
+            boolean quote = false;
+            for (int i = start; i < end && !quote; i++) {
+                char c = value[i];
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                mWriter.write(value, start, length);
+                return;
+            }
+            mWriter.write('"');
+            int from = start;
+            for (int i = start; i < end; i++) {
+                if (value[i] == '"') {
+                    // Written up to and including the quote, which then starts the next run.
+                    mWriter.write(value, from, i + 1 - from);
+                    from = i;
+                }
+            }
+            mWriter.write(value, from, end - from);
+            mWriter.write('"');
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                mWriter.write(value);
+                return;
+            }
+            mWriter.write('"');
+            mWriter.write(value.replace("\"", "\"\""));
+            mWriter.write('"');
+        }
+
+        /** Writes {@code value} in decimal without making a string of it. */
+        private void writeInt(int value) throws IOException {
+            if (value < 0) {
+                mWriter.write('-');
+            } else {
+                value = -value;
+            }
+            // Digits are taken from the negated value, which also holds Integer.MIN_VALUE.
+            int position = mDigits.length;
+            do {
+                mDigits[--position] = (char) ('0' - value % 10);
+                value /= 10;
+            } while (value != 0);
+            mWriter.write(mDigits, position, mDigits.length - position);
+        }
+    }
+
+    private static final class JsonRecordReader extends RecordReader {
+
+        private final JsonReader mReader;
+        private long mRecord;
+        private boolean mStarted;
+        private boolean mFinished;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        ContentValues next() throws IOException {
+            if (mFinished) {
+                return null;
+            }
+            if (!mStarted) {
+                mReader.beginArray();
+                mStarted = true;
+            }
+            if (!mReader.hasNext()) {
+                mReader.endArray();
+                mFinished = true;
+                return null;
+            }
+            mRecord++;
+
+            ContentValues values = new ContentValues(COLUMNS.length);
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                switch (name) {
+                    case PetEntry.COLUMN_PET_NAME:
+                    case PetEntry.COLUMN_PET_BREED:
+                        if (mReader.peek() == JsonToken.NULL) {
+                            mReader.nextNull();
+                            values.putNull(name);
+                        } else {
+                            values.put(name, mReader.nextString());
+                        }
+                        break;
+                    case PetEntry.COLUMN_PET_GENDER:
+                    case PetEntry.COLUMN_PET_WEIGHT:
+                        try {
+                            values.put(name, mReader.nextInt());
+                        } catch (IllegalStateException | NumberFormatException e) {
+                            throw new IOException("Record " + mRecord + " has invalid " + name, e);
+                        }
+                        break;
+                    default:
+                        // Ignore fields written by other tools, such as an _id.
+                        mReader.skipValue();
+                        break;
+                }
+            }
+            mReader.endObject();
+            return values;
+        }
+
+        @Override
+        long position() {
+            return mRecord;
+        }
+    }
+
+    private static final class JsonRecordWriter extends RecordWriter {
+
+        private final JsonWriter mWriter;
+
+        JsonRecordWriter(Writer writer) {
+            mWriter = new JsonWriter(writer);
+        }
+
+        @Override
+        void begin() throws IOException {
+            mWriter.beginArray();
+        }
+
+        @Override
+        void write(char[] name, int start, int length, String breed, int gender, int weight)
+                throws IOException {
+            mWriter.beginObject();
+            // JsonWriter only takes strings.
+            mWriter.name(PetEntry.COLUMN_PET_NAME).value(new String(name, start, length));
+            mWriter.name(PetEntry.COLUMN_PET_BREED).value(breed);
+            mWriter.name(PetEntry.COLUMN_PET_GENDER).value(gender);
+            mWriter.name(PetEntry.COLUMN_PET_WEIGHT).value(weight);
+            mWriter.endObject();
+        }
+
+        @Override
+        void end() throws IOException {
+            mWriter.endArray();
+            mWriter.flush();
+        }
+    }
+}
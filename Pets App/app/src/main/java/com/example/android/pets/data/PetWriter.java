@@ -0,0 +1,285 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs pet writes off the main thread. Writes are queued and executed in order by a single
+ * writer thread; whatever has piled up while the previous batch ran is applied together through
+ * {@link PetProvider#applyBatch}, i.e. in one transaction with one round of change
+ * notifications. Results are delivered to the callback on the main thread.
+ */
+public final class PetWriter {
+
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    /** Most writes applied in one transaction. */
+    private static final int MAX_BATCH = 100;
+
+    public interface Callback {
+        /** Called on the main thread once the write has run. */
+        void onComplete(Result result);
+    }
+
+    /** Outcome of one write. */
+    public static final class Result {
+        /** URI of the inserted pet, or null for updates, deletes and failures. */
+        public final Uri uri;
+        /** Rows changed by an update or delete. */
+        public final int count;
+        /** Why the write failed, or null if it succeeded. */
+        public final Exception error;
+
+        Result(Uri uri, int count, Exception error) {
+            this.uri = uri;
+            this.count = count;
+            this.error = error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    /** Latency of the write queue since the writer was created. All times in milliseconds. */
+    public static final class Metrics {
+        public final long writes;
+        public final long batches;
+        public final long totalQueueMillis;
+        public final long maxQueueMillis;
+        public final long totalExecuteMillis;
+
+        Metrics(long writes, long batches, long totalQueueMillis, long maxQueueMillis,
+                long totalExecuteMillis) {
+            this.writes = writes;
+            this.batches = batches;
+            this.totalQueueMillis = totalQueueMillis;
+            this.maxQueueMillis = maxQueueMillis;
+            this.totalExecuteMillis = totalExecuteMillis;
+        }
+
+        /** Mean time a write waited in the queue before it started to run. */
+        public long averageQueueMillis() {
+            return writes == 0 ? 0 : totalQueueMillis / writes;
+        }
+
+        @Override
+        public String toString() {
+            return "writes=" + writes + " batches=" + batches
+                    + " avgQueueMs=" + averageQueueMillis() + " maxQueueMs=" + maxQueueMillis
+                    + " totalExecuteMs=" + totalExecuteMillis;
+        }
+    }
+
+    private static final class Write {
+        final ContentProviderOperation operation;
+        final Callback callback;
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+
+        Write(ContentProviderOperation operation, Callback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+
+    private static PetWriter sInstance;
+
+    private final ContentResolver mResolver;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final List<Write> mPending = new ArrayList<>();
+    private boolean mDrainScheduled;
+
+    private long mWrites;
+    private long mBatches;
+    private long mTotalQueueMillis;
+    private long mMaxQueueMillis;
+    private long mTotalExecuteMillis;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private PetWriter(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context);
+        }
+        return sInstance;
+    }
+
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(values).build(),
+                callback);
+    }
+
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        enqueue(ContentProviderOperation.newUpdate(uri).withValues(values).build(), callback);
+    }
+
+    /** Deletes one pet, or every pet when {@code uri} is {@link PetEntry#CONTENT_URI}. */
+    public void delete(Uri uri, Callback callback) {
+        enqueue(ContentProviderOperation.newDelete(uri).build(), callback);
+    }
+
+    /**
+     * Sets the photo of the pet at {@code uri} to the image in {@code photo}, or removes it if
+     * null, and closes {@code photo} afterwards. Open the descriptor while the URI it comes from
+     * is still readable; a picked image may only be granted to the activity that picked it.
+     * Runs on the writer thread after the writes already queued, but outside their
+     * transactions, so decoding the image never holds the database.
+     */
+    public void setPhoto(final Uri uri, final ParcelFileDescriptor photo, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result;
+                try {
+                    Bundle extras = new Bundle();
+                    extras.putParcelable(PetsContract.EXTRA_PHOTO, photo);
+                    Bundle reply = mResolver.call(PetEntry.CONTENT_URI,
+                            PetsContract.METHOD_SET_PHOTO, uri.toString(), extras);
+                    result = new Result(null, (int) reply.getLong(PetsContract.EXTRA_ROWS), null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Setting the photo failed for " + uri, e);
+                    result = new Result(null, 0, e);
+                } finally {
+                    closeQuietly(photo);
+                }
+                deliver(callback, result);
+            }
+        });
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(mWrites, mBatches, mTotalQueueMillis, mMaxQueueMillis, mTotalExecuteMillis);
+    }
+
+    private synchronized void enqueue(ContentProviderOperation operation, Callback callback) {
+        mPending.add(new Write(operation, callback));
+        if (!mDrainScheduled) {
+            mDrainScheduled = true;
+            mExecutor.execute(mDrain);
+        }
+    }
+
+    /** Runs on the writer thread: applies everything queued so far, a batch at a time. */
+    private void drain() {
+        while (true) {
+            List<Write> batch;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                int size = Math.min(mPending.size(), MAX_BATCH);
+                batch = new ArrayList<>(mPending.subList(0, size));
+                mPending.subList(0, size).clear();
+            }
+            execute(batch);
+        }
+    }
+
+    private void execute(List<Write> batch) {
+        long startedAt = SystemClock.elapsedRealtime();
+        Result[] results = new Result[batch.size()];
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(write.operation);
+        }
+        try {
+            ContentProviderResult[] applied = mResolver.applyBatch(PetsContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < applied.length; i++) {
+                results[i] = toResult(applied[i]);
+            }
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            // One bad write rolls back the whole batch; run them one by one so only it fails.
+            for (int i = 0; i < batch.size(); i++) {
+                results[i] = executeAlone(batch.get(i).operation);
+            }
+        }
+
+        long finishedAt = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mBatches++;
+            mTotalExecuteMillis += finishedAt - startedAt;
+            for (Write write : batch) {
+                long queued = startedAt - write.enqueuedAt;
+                mWrites++;
+                mTotalQueueMillis += queued;
+                mMaxQueueMillis = Math.max(mMaxQueueMillis, queued);
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            deliver(batch.get(i).callback, results[i]);
+        }
+    }
+
+    private Result executeAlone(ContentProviderOperation operation) {
+        ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+        single.add(operation);
+        try {
+            return toResult(mResolver.applyBatch(PetsContract.CONTENT_AUTHORITY, single)[0]);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Log.e(LOG_TAG, "Write failed for " + operation.getUri(), e);
+            return new Result(null, 0, e);
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor descriptor) {
+        if (descriptor == null) {
+            return;
+        }
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close " + descriptor, e);
+        }
+    }
+
+    private static Result toResult(ContentProviderResult result) {
+        int count = result.count == null ? 0 : result.count;
+        return new Result(result.uri, count, null);
+    }
+
+    private void deliver(final Callback callback, final Result result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+}
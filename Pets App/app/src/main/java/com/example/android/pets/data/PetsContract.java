@@ -1,9 +1,11 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.UriMatcher;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import java.net.URI;
 
@@ -21,12 +23,85 @@ public class PetsContract {
 
     public static final String PATH_PETS = "pets";
 
+    public static final String PATH_SEARCH = "search";
+
+    public static final String PATH_STATS = "stats";
+
+    public static final String PATH_CHANGES = "changes";
+
+    public static final String PATH_PHOTO = "photo";
+
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    public static final String PATH_LATEST = "latest";
+
+    /**
+     * Provider method (see {@link ContentResolver#call}) that returns the provider's query
+     * statistics and slow-query log as a string under {@link #EXTRA_STATS}.
+     */
+    public static final String METHOD_DUMP_STATS = "dump_stats";
+
+    public static final String EXTRA_STATS = "stats";
+
+    /**
+     * Provider method that writes every pet to a binary snapshot file (see
+     * {@link PetSnapshotFormat}) at the absolute path passed as the call argument, which must lie
+     * in the app's files or cache directory. The number of pets written is returned under
+     * {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_WRITE_SNAPSHOT = "write_snapshot";
+
+    /**
+     * Provider method that replaces every pet with those in the snapshot file at the absolute
+     * path passed as the call argument, in the app's files or cache directory, keeping their
+     * ids. The restore is one transaction, so a bad snapshot leaves the table as it was. The
+     * number of pets restored is returned under {@link #EXTRA_ROWS}.
+     */
+    public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+
+    public static final String EXTRA_ROWS = "rows";
+
+    /**
+     * Provider method that sets the photo of the pet whose URI is passed as the call argument.
+     * The image is read from the {@link android.os.ParcelFileDescriptor} under
+     * {@link #EXTRA_PHOTO}, which stays owned by the caller, and stored downscaled as a JPEG;
+     * without it the photo is removed. Returns the number of pets changed under
+     * {@link #EXTRA_ROWS}. Decoding a camera photo takes a while, so call it off the main thread.
+     */
+    public static final String METHOD_SET_PHOTO = "set_photo";
+
+    public static final String EXTRA_PHOTO = "photo";
+
+    /**
+     * Provider method that purges deleted pets, refreshes the query planner's statistics,
+     * truncates the WAL and checks the database's integrity, for at most the number of
+     * milliseconds passed as the call argument. Steps left when time runs out are taken up by
+     * the next call; whether none were left is returned under {@link #EXTRA_FINISHED}. The
+     * outcome of the last run is part of {@link #METHOD_DUMP_STATS}. Call it off the main thread.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    public static final String EXTRA_FINISHED = "finished";
+
 
     public static final class PetEntry implements BaseColumns
     {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /** Base URI for full-text searches; append the search text as a single path segment. */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * URI of aggregate statistics over the pets: one row per group with
+         * {@link #COLUMN_STATS_COUNT}, {@link #COLUMN_STATS_TOTAL_WEIGHT} and
+         * {@link #COLUMN_STATS_AVERAGE_WEIGHT}. See {@link #buildStatsUri}.
+         */
+        public static final Uri CONTENT_STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        public static final String CONTENT_STATS_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
@@ -45,6 +120,76 @@ public class PetsContract {
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * Name of the file holding the pet's photo, or null if it has none. A new photo always
+         * gets a new name, so the name can key caches of the image. Read-only: photos are set
+         * with {@link PetsContract#METHOD_SET_PHOTO} and read from {@link #buildPhotoUri} or
+         * {@link #buildThumbnailUri}.
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /** MIME type of the files behind the photo and thumbnail URIs. */
+        public static final String PHOTO_TYPE = "image/jpeg";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} giving the maximum number of rows in a page.
+         * When present the rows are returned in ascending {@link #_ID} order.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter on {@link #CONTENT_URI} giving the {@link #_ID} of the last row of the
+         * previous page. Only rows that come after it in the sort order are returned.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter giving the sort column value of the last row of the previous page,
+         * used together with {@link #QUERY_PARAMETER_AFTER_ID} when {@link #QUERY_PARAMETER_SORT}
+         * is not {@link #_ID}. Leave it out when that value was null.
+         */
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+        /** Query parameter restricting the rows to one of the {@code GENDER_*} values. */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+
+        /** Query parameter restricting the rows to an exact breed. */
+        public static final String QUERY_PARAMETER_BREED = "breed";
+
+        /** Query parameters restricting the rows to an inclusive weight range in kg. */
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Query parameter naming the column the rows are sorted on, ascending with ties broken
+         * by {@link #_ID}. Must be one of {@link #_ID}, {@link #COLUMN_PET_NAME},
+         * {@link #COLUMN_PET_BREED} or {@link #COLUMN_PET_WEIGHT}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter on {@link #CONTENT_STATS_URI} with a comma-separated list of the
+         * columns to group by: {@link #COLUMN_PET_GENDER} and/or {@link #COLUMN_PET_BREED}.
+         * Without it a single row covers every pet.
+         */
+        public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+
+        /**
+         * Query parameter on {@link #CONTENT_STATS_URI}; {@code true} computes the statistics
+         * from the pets themselves instead of the summary table kept up to date on every write.
+         * Only useful to cross-check the summary.
+         */
+        public static final String QUERY_PARAMETER_LIVE = "live";
+
+        /** Number of pets in a group of {@link #CONTENT_STATS_URI}. */
+        public static final String COLUMN_STATS_COUNT = "count";
+
+        /** Sum of the weights of a group of {@link #CONTENT_STATS_URI}, in kg. */
+        public static final String COLUMN_STATS_TOTAL_WEIGHT = "total_weight";
+
+        /** Mean weight of a group of {@link #CONTENT_STATS_URI}, in kg; null for no pets. */
+        public static final String COLUMN_STATS_AVERAGE_WEIGHT = "average_weight";
+
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
         public static final int GENDER_UNKNOWN = 0;
@@ -55,5 +200,217 @@ public class PetsContract {
             }
             return false;
         }
+
+        /**
+         * Builds the URI that searches pet names and breeds for words starting with the words in
+         * {@code query}. Matches on the pet name are ranked first.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+        /**
+         * Builds the statistics URI grouped by the given columns, each either
+         * {@link #COLUMN_PET_GENDER} or {@link #COLUMN_PET_BREED}.
+         */
+        public static Uri buildStatsUri(String... groupBy) {
+            Uri.Builder builder = CONTENT_STATS_URI.buildUpon();
+            if (groupBy.length > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GROUP_BY,
+                        TextUtils.join(",", groupBy));
+            }
+            return builder.build();
+        }
+
+        /** Builds the URI of the photo of the pet with id {@code id}, for reading only. */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO).build();
+        }
+
+        /**
+         * Builds the URI of a small copy of the pet's photo, at most a few hundred pixels on
+         * its longer side, for lists.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_THUMBNAIL).build();
+        }
+
+        /**
+         * Builds the URI for the page of at most {@code limit} pets that follows the pet with
+         * id {@code afterId}. Pass 0 to get the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Feed of the changes made to the pets, for components that keep a copy of them. Every
+     * insert, update and delete is logged under an increasing {@link #COLUMN_SEQUENCE} in the
+     * same transaction as the change itself. A row carries the pet's {@link PetEntry#_ID} and,
+     * for inserts and updates, its current name, breed, gender, weight and photo (null once the
+     * pet has been deleted again).
+     *
+     * <p>To stay in sync, read the changes after the last sequence seen, apply them in order and
+     * repeat until fewer rows than the limit come back. Only the latest
+     * {@link #RETAINED_CHANGES} changes are kept; a reader that falls further behind first gets
+     * an {@link #OP_RESET} row and must reload every pet from {@link PetEntry#CONTENT_URI}
+     * before applying the rows that follow it.
+     */
+    public static final class PetChangeEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_CHANGES);
+
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+
+        /**
+         * URI of a single row with the {@link #COLUMN_SEQUENCE} of the newest change, or 0 if
+         * nothing was ever logged. Read it before loading the pets to follow the feed from then.
+         */
+        public static final Uri CONTENT_LATEST_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_LATEST);
+
+        public static final String CONTENT_LATEST_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+
+        /** Query parameter with the sequence after which to return changes; 0 for all of them. */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /** Query parameter with the maximum number of changes to return; default 1000. */
+        public static final String QUERY_PARAMETER_LIMIT = PetEntry.QUERY_PARAMETER_LIMIT;
+
+        /** Sequence number of the change; the next read continues after the last one. */
+        public static final String COLUMN_SEQUENCE = "seq";
+
+        /** Kind of change, one of the {@code OP_*} constants. */
+        public static final String COLUMN_OP = "op";
+
+        /**
+         * The log no longer reaches back to the requested sequence: reload every pet, then
+         * apply the rows that follow.
+         */
+        public static final int OP_RESET = 0;
+        public static final int OP_INSERT = 1;
+        public static final int OP_UPDATE = 2;
+        public static final int OP_DELETE = 3;
+
+        /** Every pet with an id up to and including {@link PetEntry#_ID} was deleted. */
+        public static final int OP_DELETE_THROUGH = 4;
+
+        /** Number of the most recent changes the log keeps at least. */
+        public static final int RETAINED_CHANGES = 10000;
+
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Typed filter and sort order for {@link PetEntry#CONTENT_URI}, turned into the query
+     * parameters the provider understands. Unset fields do not restrict the rows.
+     */
+    public static final class PetFilter {
+
+        private Integer mGender;
+        private String mBreed;
+        private Integer mMinWeight;
+        private Integer mMaxWeight;
+        private String mSort = PetEntry._ID;
+
+        public PetFilter setGender(Integer gender) {
+            if (gender != null && !PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Invalid gender " + gender);
+            }
+            mGender = gender;
+            return this;
+        }
+
+        public PetFilter setBreed(String breed) {
+            mBreed = breed;
+            return this;
+        }
+
+        public PetFilter setWeightRange(Integer minWeight, Integer maxWeight) {
+            mMinWeight = minWeight;
+            mMaxWeight = maxWeight;
+            return this;
+        }
+
+        /** Sorts on {@code column}; see {@link PetEntry#QUERY_PARAMETER_SORT}. */
+        public PetFilter setSort(String column) {
+            mSort = column;
+            return this;
+        }
+
+        public Integer getGender() {
+            return mGender;
+        }
+
+        public String getBreed() {
+            return mBreed;
+        }
+
+        public Integer getMinWeight() {
+            return mMinWeight;
+        }
+
+        public Integer getMaxWeight() {
+            return mMaxWeight;
+        }
+
+        public String getSort() {
+            return mSort;
+        }
+
+        /** Returns {@code uri} with the filter parameters, but not the sort order, added. */
+        public Uri appendTo(Uri uri) {
+            Uri.Builder builder = uri.buildUpon();
+            if (mGender != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_GENDER, mGender.toString());
+            }
+            if (mBreed != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_BREED, mBreed);
+            }
+            if (mMinWeight != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT,
+                        mMinWeight.toString());
+            }
+            if (mMaxWeight != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT,
+                        mMaxWeight.toString());
+            }
+            return builder.build();
+        }
+
+        /** Builds the URI for the first page of at most {@code limit} matching pets. */
+        public Uri buildFirstPageUri(int limit) {
+            return appendTo(PetEntry.CONTENT_URI).buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, mSort)
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Builds the URI for the page that follows the pet with id {@code lastId}, whose value in
+         * the sort column is {@code lastKey}.
+         */
+        public Uri buildNextPageUri(long lastId, String lastKey, int limit) {
+            Uri.Builder builder = buildFirstPageUri(limit).buildUpon().appendQueryParameter(
+                    PetEntry.QUERY_PARAMETER_AFTER_ID, String.valueOf(lastId));
+            if (lastKey != null && !PetEntry._ID.equals(mSort)) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY, lastKey);
+            }
+            return builder.build();
+        }
     }
 }
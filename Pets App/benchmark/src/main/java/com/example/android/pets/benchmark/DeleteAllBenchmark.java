@@ -0,0 +1,98 @@
+package com.example.android.pets.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes every pet, as "Delete All Pets" in the catalog does: {@link #softDeleteAll} is what
+ * the provider does while the user waits, {@link #softDeleteAllAndCompact} adds the background
+ * purge by PetCompactor, and {@link #deleteAll} is the plain DELETE the provider used to run.
+ * The table is rebuilt before each measured call, so every iteration is a single shot.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeleteAllBenchmark {
+
+    /** PetCompactor's batch purge of the rows below the delete-all watermark. */
+    private static final String PURGE_CLEARED = "DELETE FROM pets WHERE _id IN (SELECT _id "
+            + "FROM pets WHERE _id <= (SELECT deleted_through FROM pets_meta) ORDER BY _id "
+            + "LIMIT 500)";
+
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    private File mFile;
+    private Connection mConnection;
+
+    @Setup(Level.Iteration)
+    public void fill() throws SQLException {
+        mFile = ShelterDatabase.tempFile("pets-delete");
+        mConnection = ShelterDatabase.create(mFile, rows);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drop() throws SQLException {
+        mConnection.close();
+        ShelterDatabase.delete(mFile);
+    }
+
+    @Benchmark
+    public int deleteAll() throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            return statement.executeUpdate("DELETE FROM pets");
+        }
+    }
+
+    @Benchmark
+    public long softDeleteAll() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (Statement statement = mConnection.createStatement()) {
+            long rows;
+            try (ResultSet count = statement.executeQuery(
+                    "SELECT IFNULL(SUM(pet_count), 0) FROM pet_stats")) {
+                rows = count.next() ? count.getLong(1) : 0;
+            }
+            statement.executeUpdate("UPDATE pets_meta SET deleted_through = MAX(deleted_through, "
+                    + "(SELECT IFNULL(MAX(_id), 0) FROM pets))");
+            statement.executeUpdate("DELETE FROM pet_stats");
+            mConnection.commit();
+            return rows;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    @Benchmark
+    public long softDeleteAllAndCompact() throws SQLException {
+        long rows = softDeleteAll();
+        try (Statement statement = mConnection.createStatement()) {
+            while (statement.executeUpdate(PURGE_CLEARED) > 0) {
+                // One batch per autocommit transaction, as PetCompactor runs them.
+            }
+            statement.execute("PRAGMA incremental_vacuum");
+        }
+        return rows;
+    }
+}
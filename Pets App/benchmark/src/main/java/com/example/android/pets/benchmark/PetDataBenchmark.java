@@ -0,0 +1,265 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetChangeFeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the SQL behind each PetProvider operation against tables of 1k, 100k and 1M pets.
+ * The catalog access pattern is a keyset page read (limit/after_id); "uncompiled" variants
+ * prepare their statement on every call, the way SQLiteDatabase.insert/update do, to compare
+ * against the statement cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PetDataBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int BULK_SIZE = 1000;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int rows;
+
+    private File mFile;
+    private Connection mConnection;
+    private PreparedStatement mInsert;
+    private PreparedStatement mUpdateById;
+    private PreparedStatement mQueryById;
+    private PreparedStatement mQueryPage;
+    private int mNextPet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        mFile = ShelterDatabase.tempFile("pets-benchmark");
+        mConnection = ShelterDatabase.create(mFile, rows);
+        mInsert = mConnection.prepareStatement(ShelterDatabase.INSERT_PET);
+        mUpdateById = mConnection.prepareStatement(ShelterDatabase.UPDATE_WEIGHT);
+        mQueryById = mConnection.prepareStatement(
+                "SELECT _id, name, breed, gender, weight, photo FROM pets_view WHERE _id = ?");
+        mQueryPage = mConnection.prepareStatement(
+                "SELECT _id, name, breed, weight, photo FROM pets_view WHERE _id > ? "
+                        + "ORDER BY _id ASC LIMIT ?");
+        mNextPet = rows;
+    }
+
+    /**
+     * Removes the pets the insert benchmarks added during the last iteration, so every iteration
+     * measures against a table of {@link #rows} pets.
+     */
+    @Setup(Level.Iteration)
+    public void removeInserted() throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.executeUpdate("DELETE FROM pets WHERE _id > " + rows);
+        }
+        mNextPet = rows;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        mConnection.close();
+        ShelterDatabase.delete(mFile);
+    }
+
+    private int randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(rows);
+    }
+
+    @Benchmark
+    public int singleInsert() throws SQLException {
+        ShelterDatabase.bindPet(mInsert, mNextPet++);
+        return mInsert.executeUpdate();
+    }
+
+    @Benchmark
+    public int singleInsertUncompiled() throws SQLException {
+        try (PreparedStatement insert = mConnection.prepareStatement(ShelterDatabase.INSERT_PET)) {
+            ShelterDatabase.bindPet(insert, mNextPet++);
+            return insert.executeUpdate();
+        }
+    }
+
+    /** One bulkInsert call of {@link #BULK_SIZE} pets in a single transaction. */
+    @Benchmark
+    public void bulkInsert() throws SQLException {
+        ShelterDatabase.insertPets(mConnection, mNextPet, BULK_SIZE);
+        mNextPet += BULK_SIZE;
+    }
+
+    /** Time to the first row of an unpaged full-table query, i.e. the old catalog load. */
+    @Benchmark
+    public void queryAll(Blackhole blackhole) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT _id, name, breed FROM pets_view")) {
+            blackhole.consume(result.next());
+        }
+    }
+
+    @Benchmark
+    public void queryPage(Blackhole blackhole) throws SQLException {
+        mQueryPage.setInt(1, randomId());
+        mQueryPage.setInt(2, PAGE_SIZE);
+        try (ResultSet result = mQueryPage.executeQuery()) {
+            while (result.next()) {
+                blackhole.consume(result.getLong(1));
+                blackhole.consume(result.getString(2));
+                blackhole.consume(result.getString(3));
+            }
+        }
+    }
+
+    @Benchmark
+    public void queryById(Blackhole blackhole) throws SQLException {
+        mQueryById.setInt(1, randomId());
+        try (ResultSet result = mQueryById.executeQuery()) {
+            if (result.next()) {
+                blackhole.consume(result.getString(2));
+                blackhole.consume(result.getInt(5));
+            }
+        }
+    }
+
+    @Benchmark
+    public int updateById() throws SQLException {
+        int weight = ThreadLocalRandom.current().nextInt(40);
+        mUpdateById.setInt(1, weight);
+        mUpdateById.setInt(2, weight);
+        mUpdateById.setInt(3, randomId());
+        return mUpdateById.executeUpdate();
+    }
+
+    /** Saving a pet without changing it, which the no-op guard turns into a lookup. */
+    @Benchmark
+    public int updateByIdUnchanged() throws SQLException {
+        mUpdateById.setInt(1, 7);
+        mUpdateById.setInt(2, 7);
+        mUpdateById.setInt(3, 1);
+        return mUpdateById.executeUpdate();
+    }
+
+    @Benchmark
+    public int updateByIdUncompiled() throws SQLException {
+        try (PreparedStatement update =
+                     mConnection.prepareStatement(ShelterDatabase.UPDATE_WEIGHT)) {
+            int weight = ThreadLocalRandom.current().nextInt(40);
+            update.setInt(1, weight);
+            update.setInt(2, weight);
+            update.setInt(3, randomId());
+            return update.executeUpdate();
+        }
+    }
+
+    /** One page of the pets/changes feed: the latest 100 changes with the pets' values. */
+    @Benchmark
+    public void changesSince(Blackhole blackhole) throws SQLException {
+        long oldest = longForQuery(PetChangeFeed.SQL_OLDEST);
+        long latest = longForQuery(PetChangeFeed.SQL_LATEST);
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(
+                     PetChangeFeed.query(latest - PAGE_SIZE, 1000, oldest, latest))) {
+            while (result.next()) {
+                blackhole.consume(result.getLong(1));
+                blackhole.consume(result.getString(4));
+            }
+        }
+    }
+
+    /**
+     * What a subscription would pay per change if it re-ran its query instead of reading the
+     * feed: every visible male pet of 5 to 10 kg, in name order.
+     */
+    @Benchmark
+    public void filteredRequery(Blackhole blackhole) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT _id, name, breed, gender, weight, "
+                     + "photo FROM pets_view WHERE gender = 1 AND weight >= 5 AND weight <= 10 "
+                     + "ORDER BY name, _id")) {
+            while (result.next()) {
+                blackhole.consume(result.getLong(1));
+                blackhole.consume(result.getString(2));
+            }
+        }
+    }
+
+    /** The pets/stats query grouped by breed, summed from the pet_stats summary table. */
+    @Benchmark
+    public void statsByBreed(Blackhole blackhole) throws SQLException {
+        consumeStats(blackhole, "pet_stats");
+    }
+
+    /** The same aggregates with live=true, grouping every visible pet. */
+    @Benchmark
+    public void statsByBreedLive(Blackhole blackhole) throws SQLException {
+        consumeStats(blackhole, "(SELECT gender, IFNULL(breed_id, 0) AS breed_key, "
+                + "COUNT(*) AS pet_count, SUM(weight) AS total_weight FROM pets WHERE "
+                + ShelterDatabase.VISIBLE + " GROUP BY gender, breed_key)");
+    }
+
+    private long longForQuery(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    private void consumeStats(Blackhole blackhole, String source) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(
+                     "SELECT (SELECT name FROM breeds WHERE _id = breed_key) AS breed, "
+                             + "IFNULL(SUM(pet_count), 0), IFNULL(SUM(total_weight), 0), "
+                             + "CAST(SUM(total_weight) AS REAL) / SUM(pet_count) FROM " + source
+                             + " GROUP BY breed_key ORDER BY breed")) {
+            while (result.next()) {
+                blackhole.consume(result.getString(1));
+                blackhole.consume(result.getLong(2));
+                blackhole.consume(result.getDouble(4));
+            }
+        }
+    }
+
+    /** Walks every row and column, as binding the whole catalog would. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public void cursorIteration(Blackhole blackhole) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(
+                     "SELECT _id, name, breed, gender, weight FROM pets_view")) {
+            while (result.next()) {
+                blackhole.consume(result.getLong(1));
+                blackhole.consume(result.getString(2));
+                blackhole.consume(result.getString(3));
+                blackhole.consume(result.getInt(4));
+                blackhole.consume(result.getInt(5));
+            }
+        }
+    }
+}
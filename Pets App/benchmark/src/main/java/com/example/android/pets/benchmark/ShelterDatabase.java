@@ -0,0 +1,114 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * JDBC stand-in for {@code shelter.db}: built by running every {@link PetSchema} step, as
+ * PetDbHelper does for a new database on the device, and opened with the same WAL settings as
+ * PetDbTuning.DEFAULT, so the SQL the data layer issues can be measured on a plain JVM. Every
+ * generated breed is added up front, so inserts only look their ids up.
+ */
+final class ShelterDatabase {
+
+    /** PetDbHelper.SQL_VISIBLE: the pets that are neither flagged nor under the watermark. */
+    static final String VISIBLE = PetSchema.VISIBLE;
+
+    static final String[] BREEDS = {
+            "TERRIER", "LABRADOR", "BEAGLE", "POODLE", "BULLDOG", "BOXER", "PERSIAN", "SIAMESE",
+    };
+
+    /** Adds a breed name unless it is already there, as PetProvider does before each insert. */
+    static final String ADD_BREED = "INSERT OR IGNORE INTO breeds (name) VALUES (?)";
+
+    /** Inserts a pet, storing its breed as the id of the breeds row with the bound name. */
+    static final String INSERT_PET = "INSERT INTO pets (name, breed_id, gender, weight) "
+            + "VALUES (?, (SELECT _id FROM breeds WHERE name = ?), ?, ?)";
+
+    /**
+     * PetStatementCache's update of one pet's weight, which skips deleted pets and matches no
+     * row when the weight is unchanged. Binds weight, weight, id.
+     */
+    static final String UPDATE_WEIGHT = "UPDATE pets SET weight=? WHERE (weight IS NOT ?) AND "
+            + "_id=? AND " + VISIBLE;
+
+    private ShelterDatabase() {
+    }
+
+    /** Creates a fresh database file holding {@code rows} generated pets. */
+    static Connection create(File file, int rows) throws SQLException {
+        delete(file);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA page_size = 4096");
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA cache_size = 2000");
+            statement.execute("PRAGMA foreign_keys = ON");
+            for (int version = PetSchema.BASE_VERSION; version <= PetSchema.VERSION; version++) {
+                for (String sql : PetSchema.statements(version)) {
+                    statement.execute(sql);
+                }
+            }
+        }
+        try (PreparedStatement addBreed = connection.prepareStatement(ADD_BREED)) {
+            for (String breed : BREEDS) {
+                addBreed.setString(1, breed);
+                addBreed.executeUpdate();
+            }
+        }
+        insertPets(connection, 0, rows);
+        return connection;
+    }
+
+    /** Inserts {@code count} generated pets numbered from {@code first} in one transaction. */
+    static void insertPets(Connection connection, int first, int count) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_PET)) {
+            for (int i = first; i < first + count; i++) {
+                bindPet(insert, i);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    static void bindPet(PreparedStatement insert, int i) throws SQLException {
+        insert.setString(1, "Pet " + i);
+        insert.setString(2, BREEDS[i % BREEDS.length]);
+        insert.setInt(3, i % 3);
+        insert.setInt(4, i % 40);
+    }
+
+    static void delete(File file) {
+        for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+            File f = new File(file.getPath() + suffix);
+            if (f.exists() && !f.delete()) {
+                throw new IllegalStateException("Could not delete " + f);
+            }
+        }
+    }
+
+    static File tempFile(String prefix) {
+        try {
+            File file = File.createTempFile(prefix, ".db");
+            delete(file);
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetSnapshotFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores a shelter from a PetSnapshotFormat file, as PetProvider does, against replaying one
+ * autocommitted insert per pet, and writes snapshots of it. The trial setup prints the snapshot
+ * size next to the size of the checkpointed SQLite file. Each restore starts from an empty
+ * database, so every iteration is a single shot.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private static final String RESTORE_PET = "INSERT INTO pets (_id, name, breed_id, gender, "
+            + "weight) VALUES (?, ?, (SELECT _id FROM breeds WHERE name = ?), ?, ?)";
+
+    // Row-by-row replay of a million pets takes minutes per iteration, so stop at 100k.
+    @Param({ "1000", "100000" })
+    public int rows;
+
+    private File mSourceFile;
+    private Connection mSource;
+    private File mSnapshot;
+    private File mTargetFile;
+    private Connection mTarget;
+
+    @Setup(Level.Trial)
+    public void snapshot() throws SQLException, IOException {
+        mSourceFile = ShelterDatabase.tempFile("pets-source");
+        mSource = ShelterDatabase.create(mSourceFile, rows);
+        mSnapshot = File.createTempFile("pets", ".snapshot");
+        writeSnapshot(mSource, mSnapshot);
+
+        try (Statement statement = mSource.createStatement()) {
+            statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        long sqliteBytes = mSourceFile.length();
+        System.out.printf("%n%d pets: sqlite %d bytes, snapshot %d bytes (%.1f%%)%n", rows,
+                sqliteBytes, mSnapshot.length(), 100.0 * mSnapshot.length() / sqliteBytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void dropSnapshot() throws SQLException {
+        mSource.close();
+        ShelterDatabase.delete(mSourceFile);
+        if (!mSnapshot.delete()) {
+            throw new IllegalStateException("Could not delete " + mSnapshot);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyTarget() throws SQLException {
+        mTargetFile = ShelterDatabase.tempFile("pets-restore");
+        mTarget = ShelterDatabase.create(mTargetFile, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void dropTarget() throws SQLException {
+        mTarget.close();
+        ShelterDatabase.delete(mTargetFile);
+    }
+
+    @Benchmark
+    public long restoreSnapshot() throws SQLException, IOException {
+        long restored = 0;
+        Set<String> breeds = new HashSet<>();
+        mTarget.setAutoCommit(false);
+        try (FileInputStream in = new FileInputStream(mSnapshot);
+             PreparedStatement addBreed = mTarget.prepareStatement(ShelterDatabase.ADD_BREED);
+             PreparedStatement insert = mTarget.prepareStatement(RESTORE_PET)) {
+            PetSnapshotFormat.Reader reader = new PetSnapshotFormat.Reader(in.getChannel());
+            while (reader.next()) {
+                String breed = reader.breed();
+                if (breed != null && breeds.add(breed)) {
+                    addBreed.setString(1, breed);
+                    addBreed.executeUpdate();
+                }
+                insert.setLong(1, reader.id());
+                insert.setString(2, reader.name());
+                insert.setString(3, breed);
+                insert.setInt(4, reader.gender());
+                insert.setInt(5, reader.weight());
+                insert.executeUpdate();
+                restored++;
+            }
+            mTarget.commit();
+        } catch (SQLException | IOException e) {
+            mTarget.rollback();
+            throw e;
+        } finally {
+            mTarget.setAutoCommit(true);
+        }
+        return restored;
+    }
+
+    @Benchmark
+    public int restoreRowByRow() throws SQLException {
+        try (PreparedStatement insert = mTarget.prepareStatement(ShelterDatabase.INSERT_PET)) {
+            for (int i = 0; i < rows; i++) {
+                ShelterDatabase.bindPet(insert, i);
+                insert.executeUpdate();
+            }
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public long writeSnapshot() throws SQLException, IOException {
+        File file = File.createTempFile("pets", ".snapshot");
+        try {
+            return writeSnapshot(mSource, file);
+        } finally {
+            if (!file.delete()) {
+                throw new IllegalStateException("Could not delete " + file);
+            }
+        }
+    }
+
+    private static long writeSnapshot(Connection connection, File file)
+            throws SQLException, IOException {
+        try (FileOutputStream out = new FileOutputStream(file);
+             Statement statement = connection.createStatement();
+             ResultSet pets = statement.executeQuery(
+                     "SELECT _id, name, breed, gender, weight FROM pets_view ORDER BY _id")) {
+            PetSnapshotFormat.Writer writer = new PetSnapshotFormat.Writer(out.getChannel());
+            // JDBC only hands out strings; the app adds names straight from a PetBatch.
+            char[] name = new char[64];
+            while (pets.next()) {
+                String value = pets.getString(2);
+                if (value.length() > name.length) {
+                    name = new char[value.length()];
+                }
+                value.getChars(0, value.length(), name, 0);
+                writer.add(pets.getLong(1), name, 0, value.length(), pets.getString(3),
+                        pets.getInt(4), pets.getInt(5));
+            }
+            return writer.finish();
+        }
+    }
+}
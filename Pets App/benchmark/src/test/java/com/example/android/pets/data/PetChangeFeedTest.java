@@ -0,0 +1,211 @@
+package com.example.android.pets.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Keeps {@link PetLiveResult}s in step with the {@link PetChangeFeed} the way PetSubscription
+ * does, through random inserts, updates, deletes and purges, and checks after every read that
+ * they hold exactly what their filtered, sorted queries of the pets view return.
+ */
+public class PetChangeFeedTest {
+
+    /** Changes read per query, as PetSubscription pages them. */
+    private static final int PAGE = 1000;
+
+    private static final String[] BREEDS = { "TERRIER", "LABRADOR", "PERSIAN", null };
+
+    /** Every pet in id order. */
+    private static final String SQL_ALL = "SELECT * FROM pets_view ORDER BY _id";
+
+    /** As PetProvider queries breed TERRIER with weights 10 to 30 sorted on name. */
+    private static final String SQL_TERRIERS = "SELECT * FROM pets_view WHERE breed = 'TERRIER' "
+            + "AND weight >= 10 AND weight <= 30 ORDER BY name, _id";
+
+    private final Random mRandom = new Random(42);
+    private final PetLiveResult mAll = new PetLiveResult(null, null, null, null, "_id");
+    private final PetLiveResult mTerriers = new PetLiveResult(null, "TERRIER", 10, 30, "name");
+    private Connection mConnection;
+    private long mSequence;
+    private int mResets;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("PRAGMA foreign_keys = ON");
+            for (int version = PetSchema.BASE_VERSION; version <= PetSchema.VERSION; version++) {
+                for (String sql : PetSchema.statements(version)) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    @After
+    public void close() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void mirrorFollowsRandomChanges() throws SQLException {
+        for (int round = 0; round < 200; round++) {
+            // Now and then more changes than the log keeps, so the reader has to start over.
+            int changes = round % 40 == 39 ? 25000 + mRandom.nextInt(5000) : mRandom.nextInt(300);
+            mConnection.setAutoCommit(false);
+            for (int i = 0; i < changes; i++) {
+                change();
+            }
+            mConnection.commit();
+            mConnection.setAutoCommit(true);
+
+            sync();
+            assertEquals("Round " + round, values(query(SQL_ALL)), values(mAll.pets()));
+            assertEquals("Round " + round, values(query(SQL_TERRIERS)),
+                    values(mTerriers.pets()));
+        }
+        assertTrue("Pruning never outran the reader", mResets > 0);
+    }
+
+    @Test
+    public void readerAheadOfLogStartsOver() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            insert();
+        }
+        mSequence = 1000;
+
+        sync();
+
+        assertEquals(1, mResets);
+        assertEquals(10, mSequence);
+        assertEquals(values(query(SQL_ALL)), values(mAll.pets()));
+    }
+
+    private void change() throws SQLException {
+        int choice = mRandom.nextInt(100);
+        long maxId = count("SELECT IFNULL(MAX(_id), 0) FROM pets");
+        long id = 1 + (long) mRandom.nextInt((int) Math.max(maxId, 1));
+        if (choice < 45 || maxId == 0) {
+            insert();
+        } else if (choice < 80) {
+            update("UPDATE pets SET weight = " + mRandom.nextInt(40) + ", photo = "
+                    + (mRandom.nextBoolean() ? "NULL" : "'" + mRandom.nextInt(5) + ".jpg'")
+                    + " WHERE _id = " + id);
+        } else if (choice < 85) {
+            update("UPDATE pets SET name = 'Renamed " + mRandom.nextInt(1000) + "', breed_id = "
+                    + breedId() + " WHERE _id = " + id);
+        } else if (choice < 97) {
+            update("UPDATE pets SET deleted = 1 WHERE _id = " + id);
+        } else if (choice < 99) {
+            // As PetCompactor purges, which the log does not record.
+            update("DELETE FROM pets WHERE deleted = 1 OR _id <= "
+                    + "(SELECT deleted_through FROM pets_meta)");
+        } else {
+            // As PetProvider deletes every pet.
+            update("UPDATE pets_meta SET deleted_through = MAX(deleted_through, "
+                    + "(SELECT IFNULL(MAX(_id), 0) FROM pets))");
+            update("DELETE FROM pet_stats");
+        }
+    }
+
+    private void insert() throws SQLException {
+        update("INSERT INTO pets (name, breed_id, gender, weight) VALUES ('Pet "
+                + mRandom.nextInt(1000) + "', " + breedId() + ", " + mRandom.nextInt(3) + ", "
+                + mRandom.nextInt(40) + ")");
+    }
+
+    private String breedId() throws SQLException {
+        String breed = BREEDS[mRandom.nextInt(BREEDS.length)];
+        if (breed == null) {
+            return "NULL";
+        }
+        update("INSERT OR IGNORE INTO breeds (name) VALUES ('" + breed + "')");
+        return "(SELECT _id FROM breeds WHERE name = '" + breed + "')";
+    }
+
+    /** Reads the feed page by page and applies it to the results, as PetSubscription does. */
+    private void sync() throws SQLException {
+        while (true) {
+            int rows = 0;
+            try (Statement statement = mConnection.createStatement();
+                 ResultSet result = statement.executeQuery(PetChangeFeed.query(mSequence, PAGE,
+                         count(PetChangeFeed.SQL_OLDEST), count(PetChangeFeed.SQL_LATEST)))) {
+                while (result.next()) {
+                    rows++;
+                    int op = result.getInt("op");
+                    if (op == 0) {
+                        mResets++;
+                        reload();
+                        return;
+                    }
+                    long id = result.getLong("_id");
+                    PetRecord pet = result.getString("name") == null ? null : record(result);
+                    mAll.apply(op, id, pet);
+                    mTerriers.apply(op, id, pet);
+                    mSequence = result.getLong("seq");
+                }
+            }
+            if (rows < PAGE) {
+                return;
+            }
+        }
+    }
+
+    private void reload() throws SQLException {
+        mSequence = count(PetChangeFeed.SQL_LATEST);
+        mAll.reset(query(SQL_ALL));
+        mTerriers.reset(query(SQL_TERRIERS));
+    }
+
+    private List<PetRecord> query(String sql) throws SQLException {
+        List<PetRecord> pets = new ArrayList<>();
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            while (result.next()) {
+                pets.add(record(result));
+            }
+        }
+        return pets;
+    }
+
+    private static PetRecord record(ResultSet result) throws SQLException {
+        return new PetRecord(result.getLong("_id"), result.getString("name"),
+                result.getString("breed"), result.getInt("gender"), result.getInt("weight"),
+                result.getString("photo"));
+    }
+
+    private static List<String> values(List<PetRecord> pets) {
+        List<String> values = new ArrayList<>(pets.size());
+        for (PetRecord pet : pets) {
+            values.add(pet.id + "|" + pet.name + "|" + pet.breed + "|" + pet.gender + "|"
+                    + pet.weight + "|" + pet.photo);
+        }
+        return values;
+    }
+
+    private void update(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+}
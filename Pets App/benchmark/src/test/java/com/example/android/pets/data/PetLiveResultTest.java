@@ -0,0 +1,99 @@
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Applies single feed entries to a result of terriers weighing 10 to 30, sorted on name. */
+public class PetLiveResultTest {
+
+    private static final int OP_INSERT = 1;
+    private static final int OP_UPDATE = 2;
+    private static final int OP_DELETE = 3;
+    private static final int OP_DELETE_THROUGH = 4;
+
+    private final PetLiveResult mResult = new PetLiveResult(null, "TERRIER", 10, 30, "name");
+
+    @Test
+    public void resetSortsOnNameThenId() {
+        mResult.reset(Arrays.asList(terrier(3, "Rex", 12), terrier(1, "Rex", 20),
+                terrier(2, "Bo", 15)));
+
+        assertEquals(Arrays.asList(2L, 1L, 3L), ids());
+    }
+
+    @Test
+    public void insertsAndUpdatesKeepTheOrder() {
+        assertTrue(mResult.apply(OP_INSERT, 1, terrier(1, "Max", 12)));
+        assertTrue(mResult.apply(OP_INSERT, 2, terrier(2, "Ace", 12)));
+        assertTrue(mResult.apply(OP_UPDATE, 1, terrier(1, "Abe", 12)));
+
+        assertEquals(Arrays.asList(1L, 2L), ids());
+    }
+
+    @Test
+    public void unchangedValuesChangeNothing() {
+        mResult.apply(OP_INSERT, 1, terrier(1, "Max", 12));
+
+        assertFalse(mResult.apply(OP_UPDATE, 1, terrier(1, "Max", 12)));
+    }
+
+    @Test
+    public void petsMoveInAndOutOfTheFilter() {
+        assertFalse(mResult.apply(OP_INSERT, 1, terrier(1, "Max", 40)));
+        assertTrue(mResult.apply(OP_UPDATE, 1, terrier(1, "Max", 25)));
+        assertEquals(Arrays.asList(1L), ids());
+
+        assertTrue(mResult.apply(OP_UPDATE, 1, new PetRecord(1, "Max", null, 0, 25, null)));
+        assertEquals(new ArrayList<Long>(), ids());
+        assertFalse(mResult.apply(OP_UPDATE, 1, terrier(1, "Max", 9)));
+    }
+
+    @Test
+    public void deletedPetsLeave() {
+        mResult.reset(Arrays.asList(terrier(1, "Ace", 12), terrier(2, "Bo", 12),
+                terrier(3, "Cy", 12)));
+
+        assertTrue(mResult.apply(OP_DELETE, 2, null));
+        // An update logged before the pet was deleted comes without values.
+        assertTrue(mResult.apply(OP_UPDATE, 3, null));
+        assertFalse(mResult.apply(OP_DELETE, 4, null));
+
+        assertEquals(Arrays.asList(1L), ids());
+    }
+
+    @Test
+    public void deleteThroughRemovesEveryPetUpToTheId() {
+        mResult.reset(Arrays.asList(terrier(1, "Cy", 12), terrier(2, "Bo", 12),
+                terrier(5, "Ace", 12)));
+
+        assertTrue(mResult.apply(OP_DELETE_THROUGH, 2, null));
+        assertFalse(mResult.apply(OP_DELETE_THROUGH, 2, null));
+
+        assertEquals(Arrays.asList(5L), ids());
+        assertTrue(mResult.apply(OP_UPDATE, 5, terrier(5, "Ace", 13)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSortIsRejected() {
+        new PetLiveResult(null, null, null, null, "gender");
+    }
+
+    private static PetRecord terrier(long id, String name, int weight) {
+        return new PetRecord(id, name, "TERRIER", 1, weight, null);
+    }
+
+    private List<Long> ids() {
+        List<Long> ids = new ArrayList<>();
+        for (PetRecord pet : mResult.pets()) {
+            ids.add(pet.id);
+        }
+        return ids;
+    }
+}
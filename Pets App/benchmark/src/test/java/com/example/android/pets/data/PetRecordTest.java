@@ -0,0 +1,28 @@
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks which projections PetProvider may serve from cached records. */
+public class PetRecordTest {
+
+    private final PetRecord mRecord = new PetRecord(7, "Rex", null, 1, 12, "7.jpg");
+
+    @Test
+    public void recordsCoverTheirOwnColumns() {
+        assertTrue(PetRecord.covers(null));
+        assertTrue(PetRecord.covers(new String[] { "photo", "_id" }));
+        assertArrayEquals(new Object[] { "7.jpg", 7L },
+                mRecord.toRow(new String[] { "photo", "_id" }));
+        assertArrayEquals(new Object[] { 7L, "Rex", null, 1, 12, "7.jpg" }, mRecord.toRow(null));
+    }
+
+    @Test
+    public void otherColumnsAreNotCovered() {
+        assertFalse(PetRecord.covers(new String[] { "_id", "deleted" }));
+        assertFalse(PetRecord.covers(new String[] { "COUNT(*)" }));
+    }
+}
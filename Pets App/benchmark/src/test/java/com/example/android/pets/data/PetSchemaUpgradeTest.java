@@ -0,0 +1,163 @@
+package com.example.android.pets.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades version 1 databases through every {@link PetSchema} step, the way PetMigrations does
+ * on the device, and checks that nothing is lost on the way.
+ */
+public class PetSchemaUpgradeTest {
+
+    private static final int PETS = 100000;
+
+    private static final String[] BREEDS = { "TERRIER", "LABRADOR", "", null, "PERSIAN" };
+
+    private Connection mConnection;
+
+    @Before
+    public void openVersion1() throws SQLException {
+        mConnection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = mConnection.createStatement()) {
+            // As PetDbHelper.onConfigure sets it, so the breed_id references are enforced.
+            statement.execute("PRAGMA foreign_keys = ON");
+        }
+        execute(PetSchema.statements(PetSchema.BASE_VERSION));
+    }
+
+    @After
+    public void close() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void upgradeKeepsEveryPet() throws SQLException {
+        insertPets(PETS + 10);
+        // Deleted ids above every remaining one must still never come back.
+        update("DELETE FROM pets WHERE _id > " + PETS);
+
+        upgrade();
+
+        assertEquals(PETS, count("SELECT COUNT(*) FROM pets"));
+        assertEquals(PETS, count("SELECT COUNT(*) FROM pets_view"));
+        assertEquals(PETS, count("SELECT COUNT(*) FROM pets_fts"));
+        assertEquals(PETS, count("SELECT SUM(pet_count) FROM pet_stats"));
+        assertEquals(3, count("SELECT COUNT(*) FROM breeds"));
+        assertEquals(PETS * 2 / 5, count("SELECT COUNT(*) FROM pets WHERE breed_id IS NULL"));
+        assertEquals(10000, count("SELECT COUNT(*) FROM pet_changes"));
+        assertEquals(new HashSet<>(Arrays.asList("pets_name_index", "pets_breed_id_index",
+                "pets_gender_weight_index", "pets_weight_index", "pets_deleted_index")),
+                names("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'pets' "
+                        + "AND sql IS NOT NULL"));
+        assertEquals("ok", string("PRAGMA integrity_check"));
+        assertEquals(0, count("SELECT COUNT(*) FROM pragma_foreign_key_check"));
+
+        assertEquals(PETS + 11, insertPet());
+    }
+
+    @Test
+    public void upgradeOfEmptyTableKeepsIdHighWaterMark() throws SQLException {
+        insertPets(5);
+        update("DELETE FROM pets");
+
+        upgrade();
+
+        assertEquals(1, count("SELECT COUNT(*) FROM sqlite_sequence WHERE name = 'pets'"));
+        assertEquals(6, insertPet());
+    }
+
+    @Test
+    public void newDatabaseHasEveryObject() throws SQLException {
+        upgrade();
+
+        assertEquals(new HashSet<>(Arrays.asList("pets", "breeds", "pets_meta", "pet_stats",
+                "pet_changes", "pets_fts", "pets_view")),
+                names("SELECT name FROM sqlite_master WHERE type IN ('table', 'view') "
+                        + "AND name NOT LIKE 'sqlite%' AND name NOT LIKE 'pets_fts_%'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM sqlite_master WHERE name = 'pets_new'"));
+        assertEquals(1, insertPet());
+    }
+
+    private void upgrade() throws SQLException {
+        mConnection.setAutoCommit(false);
+        for (int version = PetSchema.BASE_VERSION + 1; version <= PetSchema.VERSION; version++) {
+            execute(PetSchema.statements(version));
+            mConnection.commit();
+        }
+        mConnection.setAutoCommit(true);
+    }
+
+    private void insertPets(int count) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                insert.setString(1, "Pet " + i);
+                insert.setString(2, BREEDS[i % BREEDS.length]);
+                insert.setInt(3, i % 3);
+                insert.setInt(4, i % 40);
+                insert.executeUpdate();
+            }
+        }
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+    }
+
+    /** Inserts a pet into the upgraded schema and returns its id. */
+    private long insertPet() throws SQLException {
+        update("INSERT INTO pets (name, gender) VALUES ('New', 0)");
+        return count("SELECT last_insert_rowid()");
+    }
+
+    private void execute(String[] statements) throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private void update(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    private String string(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            return result.next() ? result.getString(1) : null;
+        }
+    }
+
+    private Set<String> names(String sql) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Statement statement = mConnection.createStatement();
+             ResultSet result = statement.executeQuery(sql)) {
+            while (result.next()) {
+                names.add(result.getString(1));
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.pets.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Writes snapshots from char ranges and reads them back. */
+public class PetSnapshotFormatTest {
+
+    private static final String[] NAMES = {
+            "Rex", "", "Zo\u00EB", "\u00C6r\u00F8", "\u30DF\u30B1", "Pet \uD83D\uDC36",
+            "lone \uD83D", "\uDC36 lone", "end \uD83D",
+    };
+
+    private File mFile;
+
+    @Before
+    public void createFile() throws IOException {
+        mFile = File.createTempFile("pets", ".snapshot");
+    }
+
+    @After
+    public void deleteFile() {
+        assertTrue(mFile.delete());
+    }
+
+    @Test
+    public void namesRoundTripAsStringBytes() throws IOException {
+        // Every name sits between others in one array, as in a PetBatch.
+        StringBuilder text = new StringBuilder("\uD83D");
+        int[] starts = new int[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            starts[i] = text.length();
+            text.append(NAMES[i]).append("\uDC36");
+        }
+        char[] chars = text.toString().toCharArray();
+
+        int pets = PetSnapshotFormat.BLOCK_ROWS + NAMES.length;
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            PetSnapshotFormat.Writer writer = new PetSnapshotFormat.Writer(out.getChannel());
+            for (int id = 1; id <= pets; id++) {
+                int name = id % NAMES.length;
+                writer.add(id, chars, starts[name], NAMES[name].length(),
+                        id % 2 == 0 ? null : "TERRIER", id % 3, id % 40);
+            }
+            assertEquals(pets, writer.finish());
+        }
+
+        Charset utf8 = Charset.forName("UTF-8");
+        try (FileInputStream in = new FileInputStream(mFile);
+             FileChannel channel = in.getChannel()) {
+            PetSnapshotFormat.Reader reader = new PetSnapshotFormat.Reader(channel);
+            for (int id = 1; id <= pets; id++) {
+                assertTrue(reader.next());
+                String name = NAMES[id % NAMES.length];
+                assertEquals(id, reader.id());
+                // Unpaired surrogates come back as '?', just as String.getBytes writes them.
+                assertArrayEquals(name.getBytes(utf8), reader.name().getBytes(utf8));
+                if (id % 2 == 0) {
+                    assertNull(reader.breed());
+                } else {
+                    assertEquals("TERRIER", reader.breed());
+                }
+                assertEquals(id % 3, reader.gender());
+                assertEquals(id % 40, reader.weight());
+            }
+            assertFalse(reader.next());
+        }
+    }
+}